@@ -0,0 +1,98 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rhino against the first javax.script engine on the class path, on what they can both run: the headless suites of
+ * the bundled QUnit project, a fresh headless.js session, and the round trips the mojos make into a finished suite.
+ * Java 8 to 14 come with Nashorn; on later JVMs add an engine, e.g. nashorn-core or GraalJS, to the benchmark
+ * profile's dependencies.  Run from the project directory, which is where Maven starts the benchmarks.
+ * <p>
+ * No comparison has been run yet, so engine still defaults to rhino; change the default only once these numbers
+ * show another engine is faster.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EngineBenchmark
+{
+  private static final File BASEDIR = new File( System.getProperty( "user.dir" ) );
+  private static final String ARRAY_FUNCTION = "var tests = []; for ( var i=0; i < 100; i++ ) tests.push({ test: 'test ' + i, error: null }); return tests;";
+
+  @Param({ "rhino", "jsr223" })
+  private String engine;
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void headlessQUnitProject() throws Exception
+  {
+    QUnitTestMojo mojo = new QUnitTestMojo();
+    mojo.setLog( new QuietLog() );
+    mojo.setBasedir( new File( BASEDIR, "src/test/resources/test-qunit-project" ) );
+    mojo.includes = new String[] { "src/test/javascript/qunit/headless/*-suite.*" };
+    mojo.headlessIncludes = new String[] { "src/test/javascript/qunit/headless/*.html" };
+    mojo.engine = engine;
+    mojo.execute();
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void bootstrapHeadless() throws IOException
+  {
+    JavascriptEngine.Session session = openHeadlessSession( createEngine( engine ) );
+    try
+    {
+      session.teardown();
+    }
+    finally
+    {
+      session.close();
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String[][] recordArrayRoundTrip(HeadlessSession headless)
+  {
+    return headless.session.execRecordArrayFunction( ARRAY_FUNCTION, "array round trip", "test", "error" );
+  }
+
+  static JavascriptEngine createEngine(String engine)
+  {
+    return "rhino".equals( engine ) ? new RhinoEngine( new RhinoContextFactory(), false ) : new Jsr223Engine( null );
+  }
+
+  static JavascriptEngine.Session openHeadlessSession(JavascriptEngine engine) throws IOException
+  {
+    JavascriptEngine.Session session = engine.openSession();
+    session.execEnvironment( true );
+    return session;
+  }
+
+  /**
+   * A session with headless.js loaded, kept around so only the round trips are measured.
+   */
+  @State(Scope.Thread)
+  public static class HeadlessSession
+  {
+    private JavascriptEngine.Session session;
+
+    @Setup
+    public void setUp(EngineBenchmark benchmark) throws IOException
+    {
+      session = openHeadlessSession( createEngine( benchmark.engine ) );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+      session.close();
+    }
+  }
+}
@@ -0,0 +1,42 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Drops everything but errors, so the suite logs do not drown out the benchmark output.
+ */
+public class QuietLog implements Log
+{
+  public boolean isDebugEnabled() { return false; }
+  public void debug(CharSequence content) {}
+  public void debug(CharSequence content, Throwable error) {}
+  public void debug(Throwable error) {}
+
+  public boolean isInfoEnabled() { return false; }
+  public void info(CharSequence content) {}
+  public void info(CharSequence content, Throwable error) {}
+  public void info(Throwable error) {}
+
+  public boolean isWarnEnabled() { return false; }
+  public void warn(CharSequence content) {}
+  public void warn(CharSequence content, Throwable error) {}
+  public void warn(Throwable error) {}
+
+  public boolean isErrorEnabled() { return true; }
+
+  public void error(CharSequence content)
+  {
+    System.err.println( "[ERROR] " + content );
+  }
+
+  public void error(CharSequence content, Throwable error)
+  {
+    System.err.println( "[ERROR] " + content );
+    error.printStackTrace();
+  }
+
+  public void error(Throwable error)
+  {
+    error.printStackTrace();
+  }
+}
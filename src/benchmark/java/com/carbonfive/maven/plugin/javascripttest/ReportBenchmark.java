@@ -0,0 +1,52 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the JUnit report of a large synthetic suite, one in ten tests failing with text that needs escaping.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportBenchmark
+{
+  @Param({ "10000" })
+  public int tests;
+
+  private final ScrewUnitTestMojo mojo = new ScrewUnitTestMojo();
+  private File reportFile;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    reportFile = File.createTempFile( "TEST-synthetic", ".xml" );
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    reportFile.delete();
+  }
+
+  @Benchmark
+  public File junitReport() throws IOException
+  {
+    AbstractRhinoTestMojo.SuiteReport report = mojo.new SuiteReport( new JUnitReportWriter( reportFile, "synthetic.html" ), "synthetic.html" );
+    for ( int i=0; i < tests; i++ )
+    {
+      boolean failed = i % 10 == 0;
+      report.addTest( "module " + ( i / 100 ), "test " + i + " compares <b> & \"quoted\" values",
+                      failed ? "expected <" + i + "> but was <" + ( i + 1 ) + ">" : null, 3, 250000,
+                      failed ? "log output of test " + i : null );
+    }
+    report.finish( tests / 4 );
+    return reportFile;
+  }
+}
@@ -0,0 +1,77 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.tools.shell.Global;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost every suite pays before its first test: a fresh global with env.js loaded, as the mojo sets it up when
+ * suites do not share a scope, and the round trips the mojos make into a loaded runtime.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RuntimeBenchmark
+{
+  private static final String STRING_FUNCTION = "return 'suite ' + arguments[0];";
+  private static final String ARRAY_FUNCTION = "var tests = []; for ( var i=0; i < 100; i++ ) tests.push({ test: 'test ' + i, error: null }); return tests;";
+
+  private Context context;
+  private Scriptable scope;
+
+  @Setup
+  public void setUp() throws IOException
+  {
+    context = new RhinoContextFactory().enterContext();
+    scope = bootstrap( context );
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    Context.exit();
+  }
+
+  static Scriptable bootstrap(Context context) throws IOException
+  {
+    Global global = new Global();
+    global.init( context );
+    RhinoHelper.execEnvironment( context, global );
+    return global;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public Scriptable bootstrapRuntime() throws IOException
+  {
+    return bootstrap( context );
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String execStringFunction()
+  {
+    return RhinoHelper.execStringFunction( STRING_FUNCTION, "string round trip", context, scope, "suite.html" );
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public NativeArray execNativeArrayFunction()
+  {
+    return RhinoHelper.execNativeArrayFunction( ARRAY_FUNCTION, "array round trip", context, scope );
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String[][] execRecordArrayFunction()
+  {
+    return RhinoHelper.execRecordArrayFunction( ARRAY_FUNCTION, "record round trip", context, scope, "test", "error" );
+  }
+}
@@ -0,0 +1,110 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole builds of the test projects bundled with the plugin's own tests, and reading the results of a finished
+ * Screw.Unit suite back out of its DOM.  Run from the project directory, which is where Maven starts the benchmarks.
+ * <p>
+ * The builds run with and without a suite timeout, which is what the watchdog costs: with a budget to keep, Rhino
+ * counts instructions and calls back into it every {@link SuiteWatchdog#WALL_CLOCK_OBSERVER_THRESHOLD} of them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SuiteBenchmark
+{
+  private static final File BASEDIR = new File( System.getProperty( "user.dir" ) );
+
+  @Benchmark
+  public void screwUnitProject(Watchdog watchdog) throws Exception
+  {
+    run( new ScrewUnitTestMojo(), watchdog, "src/test/resources/test-project-1", "src/test/javascript/suite*.html" );
+  }
+
+  @Benchmark
+  public void qunitProject(Watchdog watchdog) throws Exception
+  {
+    run( new QUnitTestMojo(), watchdog, "src/test/resources/test-qunit-project", "src/test/javascript/qunit/suite*.html" );
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public Object parseSuiteReport(FinishedSuite suite)
+  {
+    return suite.parse();
+  }
+
+  private void run(AbstractRhinoTestMojo mojo, Watchdog watchdog, String project, String include) throws Exception
+  {
+    mojo.setLog( new QuietLog() );
+    mojo.setBasedir( new File( BASEDIR, project ) );
+    mojo.includes = new String[] { include };
+    mojo.suiteTimeout = watchdog.suiteTimeout;
+    mojo.execute();
+  }
+
+  /**
+   * The suite timeout of the project builds; 0 leaves the watchdog off.
+   */
+  @State(Scope.Benchmark)
+  public static class Watchdog
+  {
+    @Param({ "0", "300" })
+    public int suiteTimeout;
+  }
+
+  /**
+   * test-project-1's suite.html, run once and kept around so only the parsing is measured.
+   */
+  @State(Scope.Thread)
+  public static class FinishedSuite
+  {
+    private final ScrewUnitTestMojo mojo = new ScrewUnitTestMojo();
+    private Context context;
+    private Scriptable scope;
+    private JavascriptEngine.Session session;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+      mojo.setLog( new QuietLog() );
+      mojo.setBasedir( new File( BASEDIR, "src/test/resources/test-project-1" ) );
+
+      context = new RhinoContextFactory().enterContext();
+      scope = RuntimeBenchmark.bootstrap( context );
+      session = new RhinoEngine.RhinoSession( context, scope );
+      File suite = new File( mojo.getBasedir(), "src/test/javascript/suite.html" );
+      resetReport();
+      mojo.loadRunner( session, suite );
+      mojo.runSuite( session, suite );
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+      Context.exit();
+    }
+
+    Object parse()
+    {
+      // parsing adds the tests to the suite's report, start from an empty one every time
+      resetReport();
+      return mojo.parseSuiteReport( session );
+    }
+
+    private void resetReport()
+    {
+      AbstractRhinoTestMojo.ReportManager reportManager = mojo.new ReportManager( mojo.getLog(), mojo.new SuiteReport() );
+      session.put( "$report", reportManager );
+    }
+  }
+}
@@ -3,17 +3,36 @@ package com.carbonfive.maven.plugin.javascripttest;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.logging.Log;
 import org.mozilla.javascript.*;
-import org.mozilla.javascript.tools.shell.Global;
 import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.cli.CommandLineUtils;
 
 import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import static java.lang.String.format;
 
 
 public abstract class AbstractRhinoTestMojo extends AbstractMojo
 {
+  private static final String LOCATE_SCRIPTS_FUNCTION = "return jtmp_locate_scripts();";
+  private static final String LOCATE_CSS_FUNCTION = "return jtmp_locate_css();";
+  private static final List<String> HUMAN_REPORT_MODES = Arrays.asList( "always", "on-failure", "never" );
+  private static final int REPORT_QUEUE_CAPACITY = 8;
+  private static final String FORK_DEPENDENCIES = "$dependencies";
 
 
   /**
@@ -31,95 +50,1627 @@ public abstract class AbstractRhinoTestMojo extends AbstractMojo
    */
   protected boolean reimportScripts = false;
 
+  /**
+   * Run each suite in a child scope of one sealed base scope, which saves building a new shell global (print,
+   * load and the other shell functions) for every suite, and nothing else: each suite still gets a standard
+   * library of its own, so changes to builtin prototypes don't carry over into later suites, and still
+   * bootstraps env.js into its own scope.
+   *
+   * @parameter default-value="false"
+   */
+  protected boolean sharedScope = false;
+
+  /**
+   * Number of suites to run at once, each on its own thread with its own context.
+   *
+   * @parameter expression="${javascript-test.threads}" default-value="1"
+   */
+  protected int threads = 1;
+
+  /**
+   * Rhino optimization level: -1 runs scripts in the interpreter, 0 to 9 compile them to JVM bytecode.  Scripts
+   * that cannot be compiled, such as those with functions over the JVM's 64KB method limit, fall back to the
+   * interpreter.
+   *
+   * @parameter expression="${javascript-test.optimizationLevel}" default-value="-1"
+   */
+  protected int optimizationLevel = -1;
+
+  /**
+   * Where bytecode generated for compiled scripts is kept between builds.  Defaults to
+   * target/javascript-test/bytecode.
+   *
+   * @parameter
+   */
+  protected File bytecodeCacheDirectory;
+
+  /**
+   * Skip suites that passed on the previous build when neither the suite page nor any script or stylesheet it
+   * loaded has changed since.
+   *
+   * @parameter expression="${javascript-test.incremental}" default-value="false"
+   */
+  protected boolean incremental = false;
+
+  /**
+   * How often, in milliseconds, the watch goals look for changed files.
+   *
+   * @parameter expression="${javascript-test.watchInterval}" default-value="500"
+   */
+  protected long watchInterval = 500;
+
+  /**
+   * How long, in milliseconds, the watch goals wait for further changes before re-running suites, so that saving
+   * several files at once triggers a single run.
+   *
+   * @parameter expression="${javascript-test.watchQuietPeriod}" default-value="300"
+   */
+  protected long watchQuietPeriod = 300;
+
+  /**
+   * Abort a suite that runs for longer than this many seconds, e.g. because a spec loops forever or its timers
+   * never drain.  0 disables the limit.  On its own the limit is checked only every million instructions, and by
+   * interrupting a suite that sleeps past it.
+   *
+   * @parameter expression="${javascript-test.suiteTimeout}" default-value="300"
+   */
+  protected int suiteTimeout = 300;
+
+  /**
+   * Abort a suite when a single QUnit test runs for longer than this many seconds.  0 disables the limit.
+   *
+   * @parameter expression="${javascript-test.testTimeout}" default-value="0"
+   */
+  protected int testTimeout = 0;
+
+  /**
+   * Abort a suite once it has executed this many Rhino instructions.  0 disables the limit.
+   *
+   * @parameter expression="${javascript-test.instructionLimit}" default-value="0"
+   */
+  protected long instructionLimit = 0;
+
+  /**
+   * Run timers on a simulated clock: instead of sleeping until a setTimeout or setInterval is due, the clock jumps
+   * straight to it.  Timers fire in a deterministic order and Date follows the simulated clock.
+   *
+   * @parameter expression="${javascript-test.virtualTime}" default-value="false"
+   */
+  protected boolean virtualTime = false;
+
+  /**
+   * Profile the functions each suite calls and write a hot-function report and collapsed call stacks, for
+   * flamegraph tools, to target/javascript-test/profile.  Only interpreted scripts are profiled.
+   *
+   * @parameter expression="${javascript-test.profile}" default-value="false"
+   */
+  protected boolean profile = false;
+
+  /**
+   * Collect line coverage of the scripts suites load and write lcov.info and cobertura.xml, merged across all
+   * suites, to target/javascript-test/coverage.
+   *
+   * @parameter expression="${javascript-test.coverage}" default-value="false"
+   */
+  protected boolean coverage = false;
+
+  /**
+   * Scripts to collect coverage for, relative to basedir.  Defaults to src/main/**&#47;*.js.
+   *
+   * @parameter
+   */
+  protected String[] coverageIncludes;
+
+  /**
+   * Scripts to leave out of coverage, e.g. third party libraries.
+   *
+   * @parameter
+   */
+  protected String[] coverageExcludes;
+
+  /**
+   * Which part of the suites to run when they are split over several builds, from 0 to shardCount - 1.
+   *
+   * @parameter expression="${javascript-test.shardIndex}" default-value="0"
+   */
+  protected int shardIndex = 0;
+
+  /**
+   * How many builds the suites are split over.  With timings of earlier runs in timingsFile the split balances the
+   * builds' run times, otherwise suites are spread by a hash of their name.  Every build needs the same timings file
+   * to come up with the same split, so shards only read timingsFile and append their own timings to
+   * &lt;timingsFile&gt;.shard-&lt;index&gt;-of-&lt;count&gt; instead.  Collect those next to timingsFile (or append them to
+   * it) for the next build; a build that is not sharded merges them in.  Each shard records a hash of what it planned
+   * from in target/javascript-test/shard-&lt;index&gt;-of-&lt;count&gt;.properties and fails if another shard's manifest
+   * there disagrees.
+   *
+   * @parameter expression="${javascript-test.shardCount}" default-value="1"
+   */
+  protected int shardCount = 1;
+
+  /**
+   * Where the durations of recent suite and test runs are kept.  Point it outside target/, or cache it, to keep the
+   * history across clean builds.  Defaults to target/javascript-test/timings.tsv.
+   *
+   * @parameter expression="${javascript-test.timingsFile}"
+   */
+  protected File timingsFile;
+
+  /**
+   * How many of the slowest suites and tests to list in target/javascript-test/slowest.txt.
+   *
+   * @parameter expression="${javascript-test.slowestCount}" default-value="20"
+   */
+  protected int slowestCount = 20;
+
+  /**
+   * Fail the build when a suite takes more than this many percent longer than the median of its recent runs.  0
+   * disables the check.
+   *
+   * @parameter expression="${javascript-test.maxSuiteSlowdown}" default-value="0"
+   */
+  protected int maxSuiteSlowdown = 0;
+
+  /**
+   * When to write the human readable HTML report of a suite: always, on-failure or never.  Rendering it takes a
+   * snapshot of the suite's whole DOM.
+   *
+   * @parameter expression="${javascript-test.humanReport}" default-value="always"
+   */
+  protected String humanReport = "always";
+
+  /**
+   * When suites run in parallel, only start another one while this many megabytes of heap would stay free after
+   * what a suite typically takes; otherwise wait for running suites to finish.  0 turns the limit off.
+   *
+   * @parameter expression="${javascript-test.minFreeHeap}" default-value="64"
+   */
+  protected int minFreeHeap = 64;
+
+  /**
+   * Run suites in this many forked JVMs instead of the build's, handing each suite to the next fork that is free,
+   * so a suite that runs away with memory can't take the build down and the forks' heap and GC can be tuned with
+   * argLine.  0 runs suites in the build's JVM, on threads threads.  Coverage is only collected in the build's JVM
+   * and turns forking off.
+   *
+   * @parameter expression="${javascript-test.forkCount}" default-value="0"
+   */
+  protected int forkCount = 0;
+
+  /**
+   * Keep forked JVMs for further suites; false starts a fresh JVM for every suite.
+   *
+   * @parameter expression="${javascript-test.reuseForks}" default-value="true"
+   */
+  protected boolean reuseForks = true;
+
+  /**
+   * Arguments for the forked JVMs, e.g. -Xmx512m -XX:+UseParallelGC.
+   *
+   * @parameter expression="${javascript-test.argLine}"
+   */
+  protected String argLine;
+
+  /**
+   * The JavaScript engine suites run on: rhino, jsr223 for the first javax.script JavaScript engine on the
+   * plugin's class path, or jsr223:name for a particular one, e.g. jsr223:nashorn.  env.js only runs on Rhino, so
+   * other engines run the headless suites and the rest stay on Rhino.  Test timeouts, instruction limits and
+   * profiling need Rhino; elsewhere only suiteTimeout is kept, and only while a suite sleeps.
+   *
+   * @parameter expression="${javascript-test.engine}" default-value="rhino"
+   */
+  protected String engine = "rhino";
+
   /**
    * @parameter expression="${basedir}
    */
-  protected File basedir;
+  protected File basedir;
+
+  private RhinoContextFactory contextFactory;
+  private RhinoEngine rhinoEngine;
+  private JavascriptEngine scriptEngine;
+  private IncrementalIndex incrementalIndex;
+  private CoverageCollector coverageCollector;
+  private SuiteTimings suiteTimings;
+  private ExecutionMetrics executionMetrics;
+  private ReportPipeline reportPipeline;
+  private HeapGovernor heapGovernor;
+  private Semaphore contextSlots;
+  private boolean watching;
+  private boolean forked;
+  private TestListener forkListener;
+  private boolean forkDependencies;
+  private final Map<String, Set<File>> suiteDependencies = new ConcurrentHashMap<String, Set<File>>();
+
+  public void execute() throws MojoExecutionException, MojoFailureException
+  {
+    if (( shardCount < 1 ) || ( shardIndex < 0 ) || ( shardIndex >= shardCount ))
+      throw new MojoExecutionException( format("shardIndex must be between 0 and shardCount - 1, was %d of %d", shardIndex, shardCount) );
+    checkHumanReportMode();
+
+    RhinoHelper.getScriptCache().resetStatistics();
+    createEngines();
+    if ( profile && ( optimizationLevel >= 0 ) )
+      getLog().warn( "Scripts compiled at optimizationLevel " + optimizationLevel + " are not profiled, use -1 to profile everything" );
+    try
+    {
+      coverageCollector = createCoverageCollector();
+      executionMetrics = new ExecutionMetrics();
+      reportPipeline = new ReportPipeline( REPORT_QUEUE_CAPACITY );
+      heapGovernor = createHeapGovernor();
+      contextSlots = createContextSlots();
+      File timings = timingsFile != null ? timingsFile : new File( getBasedir(), "target/javascript-test/timings.tsv" );
+      suiteTimings = new SuiteTimings( timings );
+      if ( shardCount > 1 )
+        suiteTimings.setOutputFile( SuiteTimings.shardFile( timings, shardIndex, shardCount ) );
+      else if ( suiteTimings.mergeShards() > 0 )
+        getLog().debug( "Merged the timings of sharded builds into " + timings );
+      suiteTimings.load();
+
+      String[] suites = collectSuites();
+      if ( shardCount > 1 )
+        suites = selectShard( suites );
+      if (( suites == null ) || ( suites.length == 0 ))
+      {
+        getLog().info("No tests to run.");
+        return;
+      }
+
+      if ( incremental )
+      {
+        incrementalIndex = new IncrementalIndex( new File( getBasedir(), "target/javascript-test/incremental.properties" ), getBasedir() );
+        incrementalIndex.load();
+        suites = selectChangedSuites( suites );
+        if ( suites.length == 0 )
+        {
+          getLog().info("All suites are up to date.");
+          return;
+        }
+      }
+
+      try
+      {
+        for ( SuiteReport report : executeSuites( suites, true ) )
+          checkReport( report );
+        reportPipeline.drain();
+        checkForSlowdowns();
+      }
+      finally
+      {
+        closeReportPipeline();
+        if ( incrementalIndex != null )
+          incrementalIndex.save();
+        writeTimingReport();
+        suiteTimings.save();
+        writeCoverageReports();
+        writeMetrics();
+      }
+
+    }
+    catch ( MojoFailureException mfe )
+    {
+      throw mfe;
+    }
+    catch ( Exception e )
+    {
+      throw new MojoExecutionException("This plugin has experienced an unexpected error.  Please take some time to report the problem", e);
+    }
+    finally
+    {
+      logScriptCacheStatistics();
+    }
+  }
+
+  private void checkHumanReportMode()
+    throws MojoExecutionException
+  {
+    if ( ! HUMAN_REPORT_MODES.contains( humanReport ) )
+      throw new MojoExecutionException( "humanReport must be one of " + HUMAN_REPORT_MODES + ", was " + humanReport );
+  }
+
+  /**
+   * Waits for the reports still being written, e.g. those of the suites before a failing one.
+   */
+  private void closeReportPipeline()
+    throws InterruptedException
+  {
+    try
+    {
+      reportPipeline.drain();
+    }
+    catch ( IOException e )
+    {
+      getLog().warn( "Could not write reports: " + e.getMessage() );
+    }
+    reportPipeline.close();
+  }
+
+  private HeapGovernor createHeapGovernor()
+  {
+    return ( threads > 1 ) && ( minFreeHeap > 0 ) ? new HeapGovernor( minFreeHeap * 1024L * 1024L ) : null;
+  }
+
+  /**
+   * With parallel suites, one slot per context the build may have running at once, shared by whole suites and the
+   * parts of split ones.
+   */
+  private Semaphore createContextSlots()
+  {
+    return threads > 1 ? new Semaphore( threads ) : null;
+  }
+
+  private void writeMetrics()
+  {
+    File directory = new File( getBasedir(), "target/javascript-test" );
+    try
+    {
+      executionMetrics.writeJson( new File( directory, "metrics.json" ), RhinoHelper.getScriptCache() );
+      executionMetrics.writePrometheus( new File( directory, "metrics.prom" ), RhinoHelper.getScriptCache() );
+    }
+    catch ( IOException e )
+    {
+      getLog().warn( "Could not write metrics to " + directory + ": " + e.getMessage() );
+    }
+  }
+
+  private void writeTimingReport()
+  {
+    File report = new File( getBasedir(), "target/javascript-test/slowest.txt" );
+    try
+    {
+      new TimingReport( suiteTimings ).write( report, slowestCount );
+    }
+    catch ( IOException e )
+    {
+      getLog().warn( "Could not write " + report + ": " + e.getMessage() );
+    }
+  }
+
+  private void checkForSlowdowns() throws MojoFailureException
+  {
+    if ( maxSuiteSlowdown <= 0 )
+      return;
+
+    List<String> slowdowns = new TimingReport( suiteTimings ).findSlowdowns( maxSuiteSlowdown );
+    for ( String slowdown : slowdowns )
+      getLog().error( slowdown );
+    if ( ! slowdowns.isEmpty() )
+      throw new MojoFailureException( format("%d suite(s) slowed down by more than %d%%, first: %s", slowdowns.size(), maxSuiteSlowdown, slowdowns.get(0)) );
+  }
+
+  /**
+   * Whether the suite runs without a DOM, on headless.js instead of env.js.
+   */
+  protected boolean isHeadless(File suite)
+  {
+    return false;
+  }
+
+  /**
+   * Whether the framework times individual tests, rather than the suite as a whole.
+   */
+  protected boolean hasTestTimings()
+  {
+    return false;
+  }
+
+  /**
+   * This build's share of the suites, also written to a manifest so the shards of a build can be checked to have
+   * run every suite exactly once.  The plan only depends on the timings as they were when the build started.
+   */
+  private String[] selectShard(String[] suites)
+    throws IOException, MojoFailureException
+  {
+    String[] sorted = suites.clone();
+    Arrays.sort( sorted );
+
+    ShardPlanner planner = new ShardPlanner( shardCount, suiteTimings );
+    List<String> shard = planner.plan( sorted ).get( shardIndex );
+    getLog().info( format("Shard %d of %d: running %d of %d suite(s), split by %s", shardIndex, shardCount,
+                          shard.size(), suites.length, planner.getStrategy()) );
+
+    Properties manifest = new Properties();
+    manifest.setProperty( "shardIndex", String.valueOf( shardIndex ) );
+    manifest.setProperty( "shardCount", String.valueOf( shardCount ) );
+    manifest.setProperty( "strategy", planner.getStrategy() );
+    manifest.setProperty( "totalSuites", String.valueOf( suites.length ) );
+    manifest.setProperty( "inputHash", planner.getInputHash( sorted ) );
+    StringBuilder names = new StringBuilder();
+    for ( String suiteName : shard )
+      names.append( names.length() == 0 ? "" : "," ).append( suiteName.replace( File.separatorChar, '/' ) );
+    manifest.setProperty( "suites", names.toString() );
+
+    File manifestFile = getShardManifest( shardIndex );
+    manifestFile.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream( manifestFile );
+    try
+    {
+      manifest.store( out, "javascript-test shard manifest" );
+    }
+    finally
+    {
+      out.close();
+    }
+
+    checkShardManifests( manifest.getProperty( "inputHash" ) );
+    return shard.toArray( new String[shard.size()] );
+  }
+
+  private File getShardManifest(int index)
+  {
+    return new File( getBasedir(), format("target/javascript-test/shard-%d-of-%d.properties", index, shardCount) );
+  }
+
+  /**
+   * Fails if a shard whose manifest is at hand, e.g. because the shards share target/, planned from other inputs.
+   */
+  private void checkShardManifests(String inputHash)
+    throws IOException, MojoFailureException
+  {
+    for ( int index=0; index < shardCount; index++ )
+    {
+      File manifestFile = getShardManifest( index );
+      if (( index == shardIndex ) || ! manifestFile.isFile() )
+        continue;
+
+      Properties other = new Properties();
+      InputStream in = new FileInputStream( manifestFile );
+      try
+      {
+        other.load( in );
+      }
+      finally
+      {
+        in.close();
+      }
+      if ( ! inputHash.equals( other.getProperty( "inputHash" ) ) )
+        throw new MojoFailureException( format("Shard %d of %d planned from other suites or timings than shard %d (%s), so suites may run twice "
+                                               + "or not at all; give every shard the same timingsFile, or delete %s if it is left from an earlier build",
+                                               shardIndex, shardCount, index, other.getProperty( "inputHash" ), manifestFile) );
+    }
+  }
+
+  /**
+   * Runs every suite once and then, until the build is interrupted, re-runs only the suites affected by each batch
+   * of file changes.  The JVM, the compiled scripts and the context factory stay warm between runs.
+   */
+  protected void watch() throws MojoExecutionException
+  {
+    checkHumanReportMode();
+    createEngines();
+    reportPipeline = new ReportPipeline( REPORT_QUEUE_CAPACITY );
+    heapGovernor = createHeapGovernor();
+    contextSlots = createContextSlots();
+    watching = true;
+    try
+    {
+      FileWatcher watcher = new FileWatcher( getBasedir() );
+      runAndSummarize( collectSuites() );
+
+      while ( true )
+      {
+        getLog().info("Waiting for changes...");
+        Set<File> changed = watcher.waitForChanges( watchInterval, watchQuietPeriod );
+        String[] affected = selectAffectedSuites( changed );
+        if ( affected.length == 0 )
+        {
+          getLog().info( format("%d file(s) changed, no suites affected", changed.size()) );
+          continue;
+        }
+
+        getLog().info( format("%d file(s) changed, re-running %d suite(s)", changed.size(), affected.length) );
+        runAndSummarize( affected );
+      }
+    }
+    catch ( InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+    }
+    catch ( IOException e )
+    {
+      throw new MojoExecutionException("Unable to watch " + getBasedir(), e);
+    }
+  }
+
+  private void runAndSummarize(String[] suites)
+  {
+    long startTime = System.currentTimeMillis();
+    RhinoHelper.getScriptCache().resetStatistics();
+
+    List<SuiteReport> reports;
+    try
+    {
+      reports = executeSuites( suites, false );
+      reportPipeline.drain();
+    }
+    catch ( Exception e )
+    {
+      getLog().error( "Run aborted: " + e.getMessage(), e );
+      return;
+    }
+
+    int tests = 0;
+    int failures = 0;
+    List<String> failed = new ArrayList<String>();
+    for ( int i=0; i < reports.size(); i++ )
+    {
+      tests += reports.get(i).getTestsRun();
+      failures += reports.get(i).getErrors();
+      if ( reports.get(i).getErrors() > 0 )
+        failed.add( suites[i] );
+    }
+
+    getLog().info( format("%s: %d suite(s), %d test(s), %d failure(s) in %.1fs", failures == 0 ? "PASSED" : "FAILED",
+                          suites.length, tests, failures, (System.currentTimeMillis() - startTime) / 1000.0) );
+    for ( String suiteName : failed )
+      getLog().info( "  failed: " + suiteName );
+  }
+
+  /**
+   * Suites that are new, or whose page or any file it loaded on its last run is among the changed files.
+   */
+  private String[] selectAffectedSuites(Set<File> changed)
+  {
+    List<String> affected = new ArrayList<String>();
+    for ( String suiteName : collectSuites() )
+    {
+      Set<File> dependencies = suiteDependencies.get( suiteName );
+      if ( dependencies == null )
+      {
+        affected.add( suiteName );
+        continue;
+      }
+
+      for ( File file : changed )
+      {
+        if ( dependencies.contains( file ) )
+        {
+          affected.add( suiteName );
+          break;
+        }
+      }
+    }
+    return affected.toArray( new String[affected.size()] );
+  }
+
+  private List<SuiteReport> executeSuites(String[] suites, boolean failFast)
+    throws Exception
+  {
+    if ( forkCount > 0 )
+    {
+      if ( ! coverage )
+        return executeSuitesInForks( suites );
+      getLog().warn( "Coverage is only collected in the build's JVM, not forking" );
+    }
+    if (( threads > 1 ) && ( suites.length > 1 ))
+      return executeSuitesInParallel( suites );
+
+    List<SuiteReport> reports = new ArrayList<SuiteReport>();
+    for ( String suiteName : suites )
+    {
+      SuiteReport report = executeSuite( suiteName, getLog() );
+      reports.add( report );
+      if ( failFast )
+        checkReport( report );
+    }
+    return reports;
+  }
+
+  private SuiteReport executeSuite(String suiteName, Log log)
+    throws Exception
+  {
+    int workers = getModuleWorkers( new File(getBasedir(), suiteName) );
+    if ( workers > 1 )
+      return executeSuiteByModule( suiteName, workers, log );
+    return executeSuite( suiteName, log, null );
+  }
+
+  /**
+   * Runs a whole suite and writes its reports, or, given a part, runs just that part's modules and keeps the
+   * results in memory for {@link #executeSuiteByModule}.
+   */
+  private SuiteReport executeSuite(String suiteName, final Log log, SuitePart part)
+    throws Exception
+  {
+    long startTime = System.currentTimeMillis();
+    if ( part == null )
+      log.info("Running Screw.Unit suite: " + suiteName );
+    else
+      log.info("Running " + part.label + " of suite: " + suiteName );
+    File suite = new File(getBasedir(), suiteName);
+    String metricsName = part == null ? suiteName : suiteName + " (" + part.label + ")";
+    ExecutionMetrics.SuiteMetrics metrics = executionMetrics == null ? new ExecutionMetrics.SuiteMetrics( metricsName ) : executionMetrics.startSuite( metricsName );
+    metrics.phase( ExecutionMetrics.SETUP );
+
+    JavascriptEngine.Session session = getEngine( suite ).openSession();
+    Context context = session instanceof RhinoEngine.RhinoSession ? ((RhinoEngine.RhinoSession) session).getContext() : null;
+
+    JUnitReportWriter junitWriter = ( part == null ) && ! forked ? new JUnitReportWriter( getJUnitReportFile( suiteName ), getJUnitName( suiteName ) ) : null;
+    SuiteWatchdog watchdog = new SuiteWatchdog( suiteName, suiteTimeout, testTimeout, instructionLimit );
+    if ( watchdog.isEnabled() && ( context != null ) )
+      watchdog.attach( context );
+
+    JavascriptProfiler profiler = null;
+    if ( profile && ( context != null ) )
+    {
+      profiler = new JavascriptProfiler();
+      profiler.attach( context );
+    }
+
+    CoverageCollector.SuiteCoverage suiteCoverage = coverageCollector == null ? null : coverageCollector.startSuite();
+
+    SuiteReport suiteReport = part == null ? createSuiteReport( suiteName, junitWriter ) : new SuiteReport();
+    ReportManager reportManager = new ReportManager( log, suiteReport, watchdog );
+    boolean reportsWritten = false;
+    try
+    {
+      session.put("$report", reportManager);
+      if ( part != null )
+        session.put("$modules", part.modules);
+
+
+      // Establish window scope with dom and all imported and inline scripts executed
+      metrics.phase( ExecutionMetrics.BOOTSTRAP );
+      session.execEnvironment( isHeadless( suite ) );
+
+      VirtualClock clock = null;
+      if ( virtualTime )
+      {
+        clock = new VirtualClock();
+        session.put("$clock", clock);
+        session.execClasspathScript("virtual-timers.js");
+      }
+
+      if ( suiteCoverage != null )
+      {
+        session.put("$coverage", suiteCoverage);
+        session.execClasspathScript("coverage.js");
+      }
+
+      metrics.phase( ExecutionMetrics.RUNNER );
+      loadRunner( session, suite );
+
+      metrics.phase( ExecutionMetrics.RUN );
+      runSuite( session, suite );
+
+      if ( part != null )
+      {
+        metrics.phase( ExecutionMetrics.PARSE );
+        part.report = parseSuiteReport( session );
+        part.moduleNames = reportManager.getModules();
+        if ( part.primary )
+        {
+          metrics.phase( ExecutionMetrics.HUMAN_REPORT );
+          if ( ! "never".equals( humanReport ) )
+            part.humanReport = renderHumanReadableReport( session, suite, suiteName );
+          if ( needsDependencies() )
+            part.dependencies = locateDependencies( session, suite );
+        }
+        metrics.end();
+        metrics.setResults( part.report.getTestsRun(), part.report.getErrors() );
+        log.info( format("%d test(s), %d failure(s)", part.report.getTestsRun(), part.report.getErrors()) );
+        return part.report;
+      }
+
+      // examine and report on results
+      SuiteReport report = writeReports(suiteName, suite, session, System.currentTimeMillis() - startTime, metrics);
+      reportsWritten = true;
+      metrics.end();
+      metrics.setResults( report.getTestsRun(), report.getErrors() );
+
+      log.info( format("%d test(s), %d failure(s)", report.getTestsRun(), report.getErrors()) );
+      if ( clock != null )
+        log.info( format("Virtual clock skipped %.3fs of timer delays", clock.getSkipped() / 1000.0) );
+
+      Set<File> dependencies = null;
+      if ( needsDependencies() )
+        dependencies = locateDependencies( session, suite );
+      recordResults( suiteName, report, System.currentTimeMillis() - startTime, dependencies );
+
+      return report;
+    }
+    catch ( SuiteWatchdog.BudgetExceededError e )
+    {
+      log.error( e.getMessage() );
+      reportManager.testAborted( e.getMessage() );
+      suiteReport.finish( System.currentTimeMillis() - startTime );
+      throw new MojoFailureException( e.getMessage() );
+    }
+    finally
+    {
+      if ( watchdog.isEnabled() && ( context != null ) )
+        watchdog.detach( context );
+      else if ( watchdog.isEnabled() )
+        watchdog.stop();
+      if ( profiler != null )
+        writeProfile( profiler, context, part == null ? suiteName : suiteName + "." + part.id, log );
+      if ( suiteCoverage != null )
+        coverageCollector.merge( suiteCoverage );
+      if (( junitWriter != null ) && ! reportsWritten )
+        junitWriter.abort();
+      teardown( session, log );
+      session.close();
+      metrics.end();
+      if (( heapGovernor != null ) && ( part == null ))
+        heapGovernor.record( metrics.getHeapPeakDelta() );
+      log.debug( format("Heap after suite: %dMB used, peak %dMB over the start", HeapGovernor.getUsedHeap() >> 20, metrics.getHeapPeakDelta() >> 20) );
+      if ( executionMetrics != null )
+        executionMetrics.add( metrics );
+    }
+  }
+
+  private void teardown(JavascriptEngine.Session session, Log log)
+  {
+    try
+    {
+      session.teardown();
+    }
+    catch ( Exception e )
+    {
+      log.debug( "Could not tear down suite: " + e );
+    }
+  }
+
+  /**
+   * A report that streams into the suite's JUnit report, if it has one, or in a fork back to the mojo, and records
+   * the timings of its tests.
+   */
+  private SuiteReport createSuiteReport(final String suiteName, JUnitReportWriter junitWriter)
+  {
+    SuiteReport report = new SuiteReport( junitWriter, getJUnitName( suiteName ) );
+    if ( forkListener != null )
+      report.addListener( forkListener );
+    if (( suiteTimings != null ) && hasTestTimings() )
+    {
+      report.addListener( new TestListener()
+      {
+        public void testAdded(TestReport test)
+        {
+          suiteTimings.recordTest( suiteName, test.module == null ? test.test : test.module + ": " + test.test, test.timeNanos / 1000000 );
+        }
+      } );
+    }
+    return report;
+  }
+
+  private void recordResults(String suiteName, SuiteReport report, long millis, Set<File> dependencies)
+    throws IOException
+  {
+    // test timings were recorded as the tests ran, see createSuiteReport
+    if ( suiteTimings != null )
+      suiteTimings.record( suiteName, millis );
+
+    if ( dependencies != null )
+    {
+      suiteDependencies.put( suiteName, dependencies );
+      if ( incrementalIndex != null )
+        incrementalIndex.record( suiteName, dependencies, report.getErrors() == 0 );
+    }
+  }
+
+  /**
+   * Runs the modules of one suite on several contexts at once.  A first pass that runs no tests finds the modules,
+   * which are dealt out between the workers; their results are merged into one report, in the order the suite
+   * declares its modules, as if it had run in one go.  Each part loads the whole page, so this pays off for suites
+   * whose tests take much longer than loading it.
+   */
+  private SuiteReport executeSuiteByModule(String suiteName, int workers, Log log)
+    throws Exception
+  {
+    long startTime = System.currentTimeMillis();
+    SuitePart discovery = new SuitePart( "discovery", "module discovery", ModuleFilter.none(), false );
+    executeSuite( suiteName, log, discovery );
+
+    List<String> modules = new ArrayList<String>( discovery.moduleNames );
+    final List<SuitePart> parts = new ArrayList<SuitePart>();
+    int extraContexts = reserveContexts( Math.min( workers, modules.size() ) - 1 );
+    try
+    {
+      if ( extraContexts + 1 < workers )
+        log.debug( format("%s: %d of %d context(s) free to split it between", suiteName, extraContexts + 1, workers) );
+      List<ModuleFilter> filters = ModuleFilter.partition( modules, extraContexts + 1 );
+      if ( filters.size() < 2 )
+        return executeSuite( suiteName, log, null );
+
+      for ( int i=0; i < filters.size(); i++ )
+        parts.add( new SuitePart( "part" + (i + 1), format("modules part %d of %d (%d module(s))", i + 1, filters.size(), filters.get(i).size()),
+                                  filters.get(i), i == 0 ) );
+      executeParts( suiteName, parts, log );
+    }
+    finally
+    {
+      releaseContexts( extraContexts );
+    }
+
+    ExecutionMetrics.SuiteMetrics metrics = executionMetrics == null ? new ExecutionMetrics.SuiteMetrics( suiteName ) : executionMetrics.startSuite( suiteName );
+    metrics.phase( ExecutionMetrics.PARSE );
+    JUnitReportWriter junitWriter = forked ? null : new JUnitReportWriter( getJUnitReportFile( suiteName ), getJUnitName( suiteName ) );
+    boolean reportsWritten = false;
+    try
+    {
+      SuiteReport report = createSuiteReport( suiteName, junitWriter );
+      mergeParts( report, modules, parts );
+      long executionTime = System.currentTimeMillis() - startTime;
+      report.setExecutionTime( executionTime );
+
+      String html = parts.get(0).humanReport;
+      if ( "on-failure".equals( humanReport ) && ( report.getErrors() == 0 ) )
+        html = null;
+      metrics.end();
+
+      submitReport( new ReportTask( suiteName, report, executionTime, html, metrics ) );
+      reportsWritten = true;
+      metrics.setResults( report.getTestsRun(), report.getErrors() );
+
+      log.info( format("%s: %d test(s), %d failure(s) in %d part(s)", suiteName, report.getTestsRun(), report.getErrors(), parts.size()) );
+      recordResults( suiteName, report, System.currentTimeMillis() - startTime, parts.get(0).dependencies );
+      return report;
+    }
+    finally
+    {
+      if (( junitWriter != null ) && ! reportsWritten )
+        junitWriter.abort();
+      if ( executionMetrics != null )
+        executionMetrics.add( metrics );
+    }
+  }
+
+  /**
+   * Takes up to the given number of contexts beyond the one a suite already has, as far as the other suites running
+   * in parallel and the heap leave them free, without waiting for any.  Without parallel suites a split suite has
+   * the build to itself and gets them all.
+   */
+  private int reserveContexts(int wanted)
+  {
+    if ( contextSlots == null )
+      return Math.max( wanted, 0 );
+
+    int reserved = 0;
+    while (( reserved < wanted ) && contextSlots.tryAcquire())
+    {
+      if (( heapGovernor != null ) && ! heapGovernor.tryAcquire())
+      {
+        contextSlots.release();
+        break;
+      }
+      reserved++;
+    }
+    return reserved;
+  }
+
+  private void releaseContexts(int reserved)
+  {
+    if ( contextSlots == null )
+      return;
+
+    for ( int i=0; i < reserved; i++ )
+    {
+      if ( heapGovernor != null )
+        heapGovernor.release();
+      contextSlots.release();
+    }
+  }
+
+  private void executeParts(final String suiteName, List<SuitePart> parts, Log log)
+    throws Exception
+  {
+    ExecutorService executor = Executors.newFixedThreadPool( parts.size(), new SuiteThreadFactory() );
+    try
+    {
+      List<Callable<SuiteReport>> tasks = new ArrayList<Callable<SuiteReport>>();
+      List<BufferedLog> logs = new ArrayList<BufferedLog>();
+      for ( final SuitePart part : parts )
+      {
+        final BufferedLog partLog = new BufferedLog( log );
+        logs.add( partLog );
+        tasks.add( new Callable<SuiteReport>()
+        {
+          public SuiteReport call() throws Exception
+          {
+            return executeSuite( suiteName, partLog, part );
+          }
+        } );
+      }
+      runInOrder( executor, tasks, logs );
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs the tasks on the executor, then writes each one's log and collects its report in task order, so the output
+   * does not depend on scheduling.  A task's exception is rethrown once its log has been written.
+   */
+  private List<SuiteReport> runInOrder(ExecutorService executor, List<Callable<SuiteReport>> tasks, List<BufferedLog> logs)
+    throws Exception
+  {
+    List<Future<SuiteReport>> results = new ArrayList<Future<SuiteReport>>();
+    for ( Callable<SuiteReport> task : tasks )
+      results.add( executor.submit( task ) );
+
+    List<SuiteReport> reports = new ArrayList<SuiteReport>();
+    for ( int i=0; i < tasks.size(); i++ )
+    {
+      try
+      {
+        reports.add( results.get(i).get() );
+      }
+      catch ( ExecutionException e )
+      {
+        logs.get(i).flush();
+        if ( e.getCause() instanceof Exception )
+          throw (Exception) e.getCause();
+        throw e;
+      }
+
+      logs.get(i).flush();
+    }
+    return reports;
+  }
+
+  /**
+   * Adds the tests of all parts to the report, tests outside any module first, then module by module in the order
+   * the suite declared them, then any from modules the first pass did not see.
+   */
+  private void mergeParts(SuiteReport report, List<String> modules, List<SuitePart> parts)
+  {
+    Map<String, List<TestReport>> byModule = new LinkedHashMap<String, List<TestReport>>();
+    byModule.put( null, new ArrayList<TestReport>() );
+    for ( String module : modules )
+      byModule.put( module, new ArrayList<TestReport>() );
+    for ( SuitePart part : parts )
+    {
+      for ( TestReport test : part.report.getTests() )
+      {
+        if ( ! byModule.containsKey( test.module ) )
+          byModule.put( test.module, new ArrayList<TestReport>() );
+        byModule.get( test.module ).add( test );
+      }
+    }
+
+    for ( List<TestReport> tests : byModule.values() )
+      for ( TestReport test : tests )
+        report.addTest( test.module, test.test, test.error, test.assertions, test.timeNanos, test.output );
+  }
+
+  /**
+   * One context's share of a suite split by module.  The primary part also renders the human readable report and
+   * finds the suite's dependencies.
+   */
+  private static class SuitePart
+  {
+    final String id;
+    final String label;
+    final ModuleFilter modules;
+    final boolean primary;
+    SuiteReport report;
+    Set<String> moduleNames;
+    String humanReport;
+    Set<File> dependencies;
+
+    SuitePart(String id, String label, ModuleFilter modules, boolean primary)
+    {
+      this.id = id;
+      this.label = label;
+      this.modules = modules;
+      this.primary = primary;
+    }
+  }
+
+  /**
+   * How many contexts to split a suite's modules between; 1 runs it whole.
+   */
+  protected int getModuleWorkers(File suite)
+  {
+    return 1;
+  }
+
+  private CoverageCollector createCoverageCollector()
+    throws IOException
+  {
+    if ( ! coverage )
+      return null;
+
+    String[] includes = coverageIncludes == null ? new String[] { "src/main/**/*.js" } : coverageIncludes;
+    return new CoverageCollector( getBasedir(), includes, coverageExcludes,
+                                  new File( getBasedir(), "target/javascript-test/coverage-cache" ) );
+  }
+
+  private void writeCoverageReports()
+  {
+    if ( coverageCollector == null )
+      return;
+
+    File directory = new File( getBasedir(), "target/javascript-test/coverage" );
+    try
+    {
+      double lineRate = coverageCollector.writeReports( directory );
+      getLog().info( format("Line coverage %.1f%%, reports written to %s", lineRate * 100, directory) );
+    }
+    catch ( IOException e )
+    {
+      getLog().warn( "Could not write coverage reports: " + e.getMessage() );
+    }
+  }
+
+  private void writeProfile(JavascriptProfiler profiler, Context context, String suiteName, Log log)
+  {
+    profiler.detach( context );
+    File directory = new File( getBasedir(), "target/javascript-test/profile" );
+    File report = new File( directory, getJUnitName( suiteName ) + ".txt" );
+    try
+    {
+      profiler.writeReport( report, suiteName );
+      profiler.writeCollapsedStacks( new File( directory, getJUnitName( suiteName ) + ".collapsed" ) );
+      log.info( "Profile written to " + report );
+    }
+    catch ( IOException e )
+    {
+      log.warn( "Could not write profile for " + suiteName + ": " + e.getMessage() );
+    }
+  }
+
+  /**
+   * Runs suites on a pool of worker threads, each with its own context.  Suite logs are buffered and written, and
+   * reports returned, in suite order once each suite is done, so the output does not depend on scheduling.
+   */
+  private List<SuiteReport> executeSuitesInParallel(String[] suites)
+    throws Exception
+  {
+    ExecutorService executor = Executors.newFixedThreadPool( Math.min( threads, suites.length ), new SuiteThreadFactory() );
+    try
+    {
+      List<Callable<SuiteReport>> tasks = new ArrayList<Callable<SuiteReport>>();
+      List<BufferedLog> logs = new ArrayList<BufferedLog>();
+      for ( final String suiteName : suites )
+      {
+        final BufferedLog log = new BufferedLog( getLog() );
+        logs.add( log );
+        tasks.add( new Callable<SuiteReport>()
+        {
+          public SuiteReport call() throws Exception
+          {
+            // split suites running elsewhere may be holding slots for their parts
+            contextSlots.acquire();
+            try
+            {
+              if ( heapGovernor == null )
+                return executeSuite( suiteName, log );
+
+              heapGovernor.acquire();
+              try
+              {
+                return executeSuite( suiteName, log );
+              }
+              finally
+              {
+                heapGovernor.release();
+              }
+            }
+            finally
+            {
+              contextSlots.release();
+            }
+          }
+        } );
+      }
 
-  public void execute() throws MojoExecutionException, MojoFailureException
+      List<SuiteReport> reports = runInOrder( executor, tasks, logs );
+      if (( heapGovernor != null ) && ( heapGovernor.getHeldBack() > 0 ))
+        getLog().info( format("%d suite(s) waited for heap headroom before starting", heapGovernor.getHeldBack()) );
+      return reports;
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Runs suites in forked JVMs, handing each suite to the next fork that is free.  Suite logs are buffered and
+   * written in suite order, as with threads; the reports are written here, from the results the forks send back.
+   */
+  private List<SuiteReport> executeSuitesInForks(String[] suites)
+    throws Exception
   {
+    final List<String> command = createForkCommand();
+    final Map<String, String> configuration = getForkConfiguration();
+    final BlockingQueue<ForkClient> idle = new LinkedBlockingQueue<ForkClient>();
+    final List<ForkClient> started = Collections.synchronizedList( new ArrayList<ForkClient>() );
+    ExecutorService executor = Executors.newFixedThreadPool( Math.min( forkCount, suites.length ), new SuiteThreadFactory() );
     try
     {
-      String[] testIncludes = includes;
-      if (( testIncludes == null ) || ( testIncludes.length == 0 ))
-        testIncludes = new String[]{ "src/test/**/suite.html" };
+      List<Callable<SuiteReport>> tasks = new ArrayList<Callable<SuiteReport>>();
+      List<BufferedLog> logs = new ArrayList<BufferedLog>();
+      for ( final String suiteName : suites )
+      {
+        final BufferedLog log = new BufferedLog( getLog() );
+        logs.add( log );
+        tasks.add( new Callable<SuiteReport>()
+        {
+          public SuiteReport call() throws Exception
+          {
+            ForkClient fork = idle.poll();
+            if ( fork == null )
+            {
+              fork = new ForkClient( command, getBasedir(), AbstractRhinoTestMojo.this.getClass().getName(), configuration, getLog() );
+              started.add( fork );
+            }
+            boolean healthy = false;
+            try
+            {
+              SuiteReport report = executeSuiteInFork( fork, suiteName, log );
+              healthy = true;
+              return report;
+            }
+            catch ( MojoFailureException e )
+            {
+              healthy = true;
+              throw e;
+            }
+            finally
+            {
+              if ( healthy && reuseForks )
+              {
+                idle.add( fork );
+              }
+              else
+              {
+                started.remove( fork );
+                fork.close();
+              }
+            }
+          }
+        } );
+      }
+      return runInOrder( executor, tasks, logs );
+    }
+    finally
+    {
+      // forks still busy after a failure are killed once they don't quit in time
+      executor.shutdownNow();
+      for ( ForkClient fork : started.toArray( new ForkClient[0] ) )
+        fork.close();
+    }
+  }
 
-      String[] suites = collectSuites( testIncludes, excludes );
-      if (( suites == null ) || ( suites.length == 0 ))
+  private SuiteReport executeSuiteInFork(ForkClient fork, String suiteName, Log log)
+    throws Exception
+  {
+    long startTime = System.currentTimeMillis();
+    ExecutionMetrics.SuiteMetrics metrics = executionMetrics == null ? new ExecutionMetrics.SuiteMetrics( suiteName ) : executionMetrics.startSuite( suiteName );
+    metrics.phase( ExecutionMetrics.RUN );
+    JUnitReportWriter junitWriter = null;
+    boolean reportsWritten = false;
+    try
+    {
+      junitWriter = new JUnitReportWriter( getJUnitReportFile( suiteName ), getJUnitName( suiteName ) );
+      final SuiteReport report = createSuiteReport( suiteName, junitWriter );
+      ForkClient.SuiteResult result;
+      try
       {
-        getLog().info("No tests to run.");
-        return;
+        result = fork.run( suiteName, log, new ForkClient.TestHandler()
+        {
+          public void testFinished(String module, String test, String error, int assertions, long timeNanos, String output)
+          {
+            report.addTest( module, test, error, assertions, timeNanos, output );
+          }
+        } );
+      }
+      catch ( IOException e )
+      {
+        // keep the tests the fork got through, and say where it stopped
+        report.addTest( null, "forked JVM", e.getMessage(), 0, -1, null );
+        report.finish( System.currentTimeMillis() - startTime );
+        reportsWritten = true;
+        throw e;
       }
 
-      for ( String suiteName : suites )
+      if ( ! result.finished )
       {
-        long startTime = System.currentTimeMillis();
-        getLog().info("Running Screw.Unit suite: " + suiteName );
-        File suite = new File(getBasedir(), suiteName);
+        // a suite stopped by its watchdog already reported the test it was stopped in
+        if ( ! result.failure )
+          report.addTest( null, "forked JVM", result.failureMessage, 0, -1, null );
+        report.finish( System.currentTimeMillis() - startTime );
+        reportsWritten = true;
+        if ( result.failure )
+          throw new MojoFailureException( result.failureMessage );
+        throw new MojoExecutionException( "Suite " + suiteName + " failed in a forked JVM: " + result.failureMessage );
+      }
 
-        Global global = new Global();
-        Context context  = createAndInitializeContext( global );
-        Scriptable scope = context.initStandardObjects( global );
+      metrics.phase( ExecutionMetrics.PARSE );
+      report.setExecutionTime( result.millis );
+      metrics.end();
 
+      // the fork wrote the human readable report, it needs the suite's DOM
+      submitReport( new ReportTask( suiteName, report, result.millis, null, metrics ) );
+      reportsWritten = true;
+      metrics.setResults( report.getTestsRun(), report.getErrors() );
+      recordResults( suiteName, report, System.currentTimeMillis() - startTime, needsDependencies() ? result.dependencies : null );
+      return report;
+    }
+    finally
+    {
+      if (( junitWriter != null ) && ! reportsWritten )
+        junitWriter.abort();
+      metrics.end();
+      if ( executionMetrics != null )
+        executionMetrics.add( metrics );
+    }
+  }
 
-		final ReportManager foo = new ReportManager() {
+  private List<String> createForkCommand()
+    throws Exception
+  {
+    List<String> command = new ArrayList<String>();
+    command.add( new File( new File( System.getProperty( "java.home" ), "bin" ), "java" ).getPath() );
+    if (( argLine != null ) && ( argLine.trim().length() > 0 ))
+      command.addAll( Arrays.asList( CommandLineUtils.translateCommandline( argLine ) ) );
+    command.add( "-classpath" );
+    command.add( getForkClasspath() );
+    command.add( ForkedSuiteRunner.class.getName() );
+    if ( getLog().isDebugEnabled() )
+      command.add( "--debug" );
+    return command;
+  }
 
-			@Override
-			public void log(Boolean result, String message) {
-				getLog().info("TEST [" + result + "]: " + message);
-			}
+  /**
+   * The plugin's classes and the libraries they use, from wherever they were loaded, and the javax.script engine
+   * unless it comes with the JVM.
+   */
+  private String getForkClasspath()
+    throws Exception
+  {
+    List<Class<?>> types = new ArrayList<Class<?>>( Arrays.<Class<?>>asList( AbstractRhinoTestMojo.class, Context.class, AbstractMojo.class, DirectoryScanner.class ) );
+    if ( scriptEngine instanceof Jsr223Engine )
+      types.add( ((Jsr223Engine) scriptEngine).getEngineClass() );
+
+    Set<String> entries = new LinkedHashSet<String>();
+    for ( Class<?> type : types )
+      if ( type.getProtectionDomain().getCodeSource() != null )
+        entries.add( new File( type.getProtectionDomain().getCodeSource().getLocation().toURI() ).getPath() );
+
+    StringBuilder classpath = new StringBuilder();
+    for ( String entry : entries )
+      classpath.append( classpath.length() > 0 ? File.pathSeparator : "" ).append( entry );
+    return classpath.toString();
+  }
 
-		};
+  /**
+   * The parameters a forked JVM needs to run suites as this mojo would.  Forks run one suite at a time, without
+   * coverage, and leave timings, incremental state and JUnit reports to this mojo.
+   */
+  Map<String, String> getForkConfiguration()
+    throws IllegalAccessException
+  {
+    Map<String, String> configuration = new LinkedHashMap<String, String>();
+    for ( Field field : getParameterFields() )
+    {
+      Object value = field.get( this );
+      if ( value instanceof String[] )
+        configuration.put( field.getName(), join( (String[]) value ) );
+      else if ( value != null )
+        configuration.put( field.getName(), value.toString() );
+    }
+    configuration.put( "threads", "1" );
+    configuration.put( "forkCount", "0" );
+    configuration.put( "coverage", "false" );
+    configuration.put( "incremental", "false" );
+    configuration.put( FORK_DEPENDENCIES, String.valueOf( needsDependencies() ) );
+    return configuration;
+  }
 
-		scope.put("$report", scope, Context.toObject(foo, scope));
+  /**
+   * Sets up this mojo, in a forked JVM, as the build configured its own.
+   */
+  void configureFork(Map<String, String> configuration)
+    throws IllegalAccessException, MojoExecutionException
+  {
+    for ( Field field : getParameterFields() )
+    {
+      String value = configuration.get( field.getName() );
+      if ( value == null )
+        continue;
+
+      Class<?> type = field.getType();
+      if ( type == String[].class )
+        field.set( this, value.length() == 0 ? new String[0] : value.split( "\n" ) );
+      else if ( type == File.class )
+        field.set( this, new File( value ) );
+      else if ( type == boolean.class )
+        field.setBoolean( this, Boolean.valueOf( value ).booleanValue() );
+      else if ( type == int.class )
+        field.setInt( this, Integer.parseInt( value ) );
+      else if ( type == long.class )
+        field.setLong( this, Long.parseLong( value ) );
+      else
+        field.set( this, value );
+    }
+    forkDependencies = Boolean.valueOf( configuration.get( FORK_DEPENDENCIES ) ).booleanValue();
+    forked = true;
+    createEngines();
+  }
 
+  /**
+   * Runs a suite in a forked JVM, keeping its results for {@link ForkedSuiteRunner} to send back.
+   */
+  SuiteReport executeForkedSuite(String suiteName, Log log, TestListener listener)
+    throws Exception
+  {
+    // a fork runs one suite at a time
+    forkListener = listener;
+    try
+    {
+      return executeSuite( suiteName, log );
+    }
+    finally
+    {
+      forkListener = null;
+    }
+  }
 
-        // Establish window scope with dom and all imported and inline scripts executed
-        RhinoHelper.execClasspathScript(context, scope, "env.rhino.js");
+  Set<File> getSuiteDependencies(String suiteName)
+  {
+    return suiteDependencies.get( suiteName );
+  }
 
-		runSuite( context, scope, suite );
+  /**
+   * Parameters are the protected fields of the mojo classes, of the simple types the plugin uses.
+   */
+  private List<Field> getParameterFields()
+  {
+    List<Class<?>> types = Arrays.<Class<?>>asList( String.class, String[].class, File.class, boolean.class, int.class, long.class );
+    List<Field> fields = new ArrayList<Field>();
+    for ( Class<?> type = getClass(); type != AbstractMojo.class; type = type.getSuperclass() )
+    {
+      for ( Field field : type.getDeclaredFields() )
+      {
+        int modifiers = field.getModifiers();
+        if ( Modifier.isProtected( modifiers ) && ! Modifier.isStatic( modifiers ) && ! Modifier.isFinal( modifiers )
+             && types.contains( field.getType() ) )
+        {
+          field.setAccessible( true );
+          fields.add( field );
+        }
+      }
+    }
+    return fields;
+  }
 
+  private static String join(String[] values)
+  {
+    StringBuilder joined = new StringBuilder();
+    for ( String value : values )
+      joined.append( joined.length() > 0 ? "\n" : "" ).append( value );
+    return joined.toString();
+  }
 
+  private boolean needsDependencies()
+  {
+    return ( incrementalIndex != null ) || watching || forkDependencies;
+  }
 
-        // examine and report on results
-        SuiteReport report = writeReports(suiteName, suite, context, scope, System.currentTimeMillis() - startTime);
+  private void submitReport(ReportTask task)
+    throws IOException
+  {
+    if ( reportPipeline != null )
+      reportPipeline.submit( task );
+    else
+      task.call();
+  }
 
-        getLog().info( format("%d test(s), %d failure(s)", report.getTestsRun(), report.getErrors()) );
-        if (( report.getErrors() > 0 ))
-          throw new MojoFailureException( "Test error: " + report.getFirstError() );
+  private String[] selectChangedSuites(String[] suites)
+    throws IOException
+  {
+    List<String> selected = new ArrayList<String>();
+    for ( String suiteName : suites )
+    {
+      String reason = incrementalIndex.getReasonToRun( suiteName );
+      if ( reason == null )
+      {
+        getLog().info( format("Skipping suite %s: passed last time and none of its %d dependencies changed",
+                              suiteName, incrementalIndex.getDependencyCount( suiteName )) );
+      }
+      else
+      {
+        getLog().info( format("Selecting suite %s: %s", suiteName, reason) );
+        selected.add( suiteName );
       }
+    }
+    return selected.toArray( new String[selected.size()] );
+  }
+
+  /**
+   * The files a suite loaded: the suite page itself and every local script and stylesheet it references.
+   */
+  protected Set<File> locateDependencies(JavascriptEngine.Session session, File suite)
+    throws IOException
+  {
+    session.execClasspathScript("javascript-test-maven-plugin.js");
+
+    Set<File> dependencies = new LinkedHashSet<File>();
+    dependencies.add( suite.getCanonicalFile() );
+    for ( String script : session.execStringArrayFunction( LOCATE_SCRIPTS_FUNCTION, "locate scripts" ) )
+      if ( script.startsWith("file:") )
+        dependencies.add( resolveReference( suite, script.substring("file:".length()) ) );
+    for ( String css : session.execStringArrayFunction( LOCATE_CSS_FUNCTION, "locate css" ) )
+      dependencies.add( resolveReference( suite, css ) );
+    return dependencies;
+  }
+
+  private File resolveReference(File suite, String reference)
+    throws IOException
+  {
+    int end = reference.length();
+    if ( reference.indexOf('?') >= 0 )
+      end = Math.min( end, reference.indexOf('?') );
+    if ( reference.indexOf('#') >= 0 )
+      end = Math.min( end, reference.indexOf('#') );
+    return new File( suite.getParentFile(), reference.substring( 0, end ) ).getCanonicalFile();
+  }
+
+  private void checkReport(SuiteReport report)
+    throws MojoFailureException
+  {
+    if (( report.getErrors() > 0 ))
+      throw new MojoFailureException( "Test error: " + report.getFirstError() );
+  }
 
+  private void logScriptCacheStatistics()
+  {
+    ScriptCache cache = RhinoHelper.getScriptCache();
+    if ( cache.getHits() + cache.getMisses() == 0 )
+      return;
+
+    getLog().info( format("Script cache: %d hit(s), %d compiled in %dms, ~%dms compile time saved",
+                          cache.getHits(), cache.getMisses(), cache.getCompileMillis(), cache.getCompileMillisSaved()) );
+
+    BytecodeCache bytecodeCache = contextFactory.getBytecodeCache();
+    if ( bytecodeCache != null )
+      getLog().info( format("Bytecode cache: %d script(s) loaded, %d generated, %d interpreted after failing to compile",
+                            bytecodeCache.getLoaded(), bytecodeCache.getGenerated(), cache.getInterpretedFallbacks()) );
+  }
+
+  private void createEngines()
+    throws MojoExecutionException
+  {
+    contextFactory = createContextFactory();
+    rhinoEngine = new RhinoEngine( contextFactory, sharedScope );
+    if ( "rhino".equals( engine ) )
+    {
+      scriptEngine = rhinoEngine;
+      return;
     }
-    catch ( MojoFailureException mfe )
+
+    if ( ! "jsr223".equals( engine ) && ! engine.startsWith( "jsr223:" ) )
+      throw new MojoExecutionException( "engine must be rhino, jsr223 or jsr223:<name>, was " + engine );
+    try
     {
-      throw mfe;
+      scriptEngine = new Jsr223Engine( "jsr223".equals( engine ) ? null : engine.substring( "jsr223:".length() ) );
     }
-    catch ( Exception e )
+    catch ( IllegalArgumentException e )
     {
-      throw new MojoExecutionException("This plugin has experienced an unexpected error.  Please take some time to report the problem", e);
+      throw new MojoExecutionException( e.getMessage() );
+    }
+    if ( ! forked )
+      getLog().info( "Headless suites run on " + scriptEngine.getName() );
+  }
+
+  /**
+   * The configured engine, or Rhino for suites that need env.js when the configured engine can't run it.
+   */
+  private JavascriptEngine getEngine(File suite)
+  {
+    if ( scriptEngine.supportsDom() || isHeadless( suite ) )
+      return scriptEngine;
+    return rhinoEngine;
+  }
+
+  private RhinoContextFactory createContextFactory()
+  {
+    if ( optimizationLevel < 0 )
+      return new RhinoContextFactory();
+
+    File directory = bytecodeCacheDirectory;
+    if ( directory == null )
+      directory = new File( getBasedir(), "target/javascript-test/bytecode" );
+    return new RhinoContextFactory( optimizationLevel, new BytecodeCache( directory ) );
+  }
+
+  private static class SuiteThreadFactory implements ThreadFactory
+  {
+    private final AtomicInteger count = new AtomicInteger();
+
+    public Thread newThread(Runnable runnable)
+    {
+      Thread thread = new Thread( runnable, "javascript-test-" + count.incrementAndGet() );
+      thread.setDaemon( true );
+      return thread;
     }
   }
 
   // this is the QUnit interface mocked. it's a good interface.
   public class ReportManager {
-	public void log(Boolean result, String message) {
-
+	private final Log log;
+	private final SuiteReport report;
+	private final List<String> failedAssertions = new ArrayList<String>();
+	private final StringBuilder output = new StringBuilder();
+	private final Set<String> modules = new LinkedHashSet<String>();
+	private String currentModule;
+	private String currentTest;
+	private long testStartTime;
+	private boolean finished;
+	private final SuiteWatchdog watchdog;
+
+	public ReportManager(Log log, SuiteReport report) {
+		this(log, report, null);
 	}
 
-	public void moduleStart(String name, Object testEnvironment) {
+	public ReportManager(Log log, SuiteReport report, SuiteWatchdog watchdog) {
+		this.log = log;
+		this.report = report;
+		this.watchdog = watchdog;
+	}
 
+	public synchronized void log(Object result, String message) {
+		String text = stripMarkup(message);
+		if ( currentTest != null ) {
+			output.append(Context.toBoolean(result) ? "PASS: " : "FAIL: ").append(text).append('\n');
+		}
+		if ( Context.toBoolean(result) ) {
+			log.debug("TEST [true]: " + text);
+		} else {
+			log.info("TEST [false]: " + text);
+			failedAssertions.add(text);
+		}
 	}
 
-	public void moduleDone(String name, Long failures, Long total) {
+	public synchronized void moduleStart(String name, Object testEnvironment) {
+		currentModule = name;
+		if ( name != null ) {
+			modules.add(name);
+		}
+	}
 
+	public synchronized void moduleDone(String name, Long failures, Long total) {
+		currentModule = null;
 	}
 
-	public void testStart(String name, Object testEnvironment) {
-		log(true, "testStart: " + name);
+	public synchronized void testStart(String name, Object testEnvironment) {
+		currentTest = name;
+		testStartTime = System.nanoTime();
+		failedAssertions.clear();
+		output.setLength(0);
+		if ( watchdog != null ) {
+			watchdog.testStarted(currentModule == null ? name : currentModule + ": " + name);
+		}
 	}
 
-	public void testDone(String name, Long failures, Long total) {
+	public synchronized void testDone(String name, Long failures, Long total) {
+		long elapsed = System.nanoTime() - testStartTime;
+		String error = null;
+		if ( failures != null && failures > 0 ) {
+			error = failedAssertions.isEmpty() ? failures + " of " + total + " assertion(s) failed" : join(failedAssertions);
+		}
+		report.addTest(currentModule, name, error, total == null ? 0 : total.intValue(), elapsed, systemOut());
+		currentTest = null;
+		failedAssertions.clear();
+		output.setLength(0);
+		if ( watchdog != null ) {
+			watchdog.testFinished();
+		}
+	}
 
+	/**
+	 * Records the running test, if any, as failed with the given message after the suite had to be aborted.
+	 */
+	public synchronized void testAborted(String message) {
+		if ( currentTest != null ) {
+			report.addTest(currentModule, currentTest, message, failedAssertions.size(), System.nanoTime() - testStartTime, systemOut());
+			currentTest = null;
+		}
 	}
 
 	// before any tests start.
@@ -128,11 +1679,72 @@ public abstract class AbstractRhinoTestMojo extends AbstractMojo
 	}
 
 	// after all tests are completed.
-	public void done(Long failures, Long total) {
-		
+	public synchronized void done(Long failures, Long total) {
+		finished = true;
+	}
+
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * The modules started so far, in the order the suite declared them.
+	 */
+	public synchronized Set<String> getModules() {
+		return new LinkedHashSet<String>(modules);
+	}
+
+	/**
+	 * Everything collected so far.  A test that started but never finished is reported as a failure.
+	 */
+	public synchronized SuiteReport getReport() {
+		if ( currentTest != null ) {
+			report.addTest(currentModule, currentTest, "Test did not finish", failedAssertions.size(), System.nanoTime() - testStartTime, systemOut());
+			currentTest = null;
+		}
+		return report;
+	}
+
+	private String systemOut() {
+		return output.length() == 0 ? null : output.toString();
+	}
+
+	private String join(List<String> messages) {
+		StringBuilder buf = new StringBuilder();
+		for ( String message : messages ) {
+			if ( buf.length() > 0 )
+				buf.append("; ");
+			buf.append(message);
+		}
+		return buf.toString();
 	}
   }
-  
+
+  /**
+   * QUnit reports assertion messages as HTML fragments; reduce them to plain text.
+   */
+  static String stripMarkup(String html)
+  {
+    if ( html == null )
+      return null;
+    return html.replaceAll("<[^>]*>", "").replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+               .replace("&amp;", "&").trim();
+  }
+
+  protected ReportManager getReportManager(JavascriptEngine.Session session)
+  {
+    return (ReportManager) session.get("$report");
+  }
+
+  private String[] collectSuites()
+  {
+    String[] testIncludes = includes;
+    if (( testIncludes == null ) || ( testIncludes.length == 0 ))
+      testIncludes = new String[]{ "src/test/**/suite.html" };
+
+    return collectSuites( testIncludes, excludes );
+  }
+
   private String[] collectSuites( String[] includes, String[] excludes )
   {
     getLog().info("Basedir: " + basedir );
@@ -154,45 +1766,82 @@ public abstract class AbstractRhinoTestMojo extends AbstractMojo
     return scanner.getIncludedFiles();
   }
 
-  private SuiteReport writeReports(String suiteName, File suite, Context context, Scriptable scope, long executionTime)
+  /**
+   * Collects the suite's results and renders what needs its DOM, then leaves writing the report files to the
+   * report pipeline.
+   */
+  private SuiteReport writeReports(String suiteName, File suite, JavascriptEngine.Session session, long executionTime, ExecutionMetrics.SuiteMetrics metrics)
     throws IOException
   {
-    // Screw.Unit uses the focus event to set a 'focused' class on describe divs before running them,
-    // but env.js doesn't support focus events on non-input elements.  Focus them all manually here so our report
-    // looks better.
-    RhinoHelper.exec("jQuery('body > .describe > .describes > .describe').addClass('focused');","describe focus fix", context, scope );
+    metrics.phase( ExecutionMetrics.PARSE );
+    getReportManager(session).getReport().setExecutionTime(executionTime);
+    SuiteReport report = parseSuiteReport(session);
 
-    SuiteReport report = parseSuiteReport(context, scope);
+    String html = null;
+    metrics.phase( ExecutionMetrics.HUMAN_REPORT );
+    if ( "always".equals( humanReport ) || ( "on-failure".equals( humanReport ) && ( report.getErrors() > 0 ) ) )
+      html = renderHumanReadableReport(session, suite, suiteName);
+    metrics.end();
 
-    generateHumanReadableReport(context, scope, suite, suiteName);
+    submitReport( new ReportTask( suiteName, report, executionTime, html, metrics ) );
+    return report;
+  }
 
-    generateJUnitStyleReport(suiteName, executionTime, report);
+  private class ReportTask implements Callable<Void>
+  {
+    private final String suiteName;
+    private final SuiteReport report;
+    private final long executionTime;
+    private final String html;
+    private final ExecutionMetrics.SuiteMetrics metrics;
 
-    return report;
+    ReportTask(String suiteName, SuiteReport report, long executionTime, String html, ExecutionMetrics.SuiteMetrics metrics)
+    {
+      this.suiteName = suiteName;
+      this.report = report;
+      this.executionTime = executionTime;
+      this.html = html;
+      this.metrics = metrics;
+    }
+
+    public Void call() throws IOException
+    {
+      long startTime = System.nanoTime();
+      if ( html != null )
+        writeHumanReadableReport( suiteName, html );
+      metrics.record( ExecutionMetrics.HUMAN_REPORT, System.nanoTime() - startTime );
+
+      startTime = System.nanoTime();
+      report.finish( executionTime );
+      metrics.record( ExecutionMetrics.JUNIT_REPORT, System.nanoTime() - startTime );
+      return null;
+    }
   }
 
-  private void generateJUnitStyleReport(String suiteName, long executionTime, SuiteReport report)
+  private void writeHumanReadableReport(String suiteName, String html)
     throws IOException
   {
-    String junitName = suiteName.replace(File.separator, ".");
-    File junitFile = new File( getBasedir(), "target/screw-unit/TEST-" + junitName + ".xml" );
-    FileWriter junitReportWriter = new FileWriter(junitFile);
-    XMLRenderer renderer = new XMLRenderer(junitReportWriter)
-      .start("testsuite").attr("failures",report.getErrors()).attr("time",format("%.3f", executionTime/1000.0) )
-                         .attr("skipped","0").attr("errors",0).attr("tests",report.getTestsRun()).attr("name",junitName)
-        .start("properties").end();
-
-    for ( TestReport test : report.getTests() )
+    File reportFile = new File( getBasedir(), "target/screw-unit/" + getJUnitName( suiteName ) );
+    reportFile.getParentFile().mkdirs();
+    Writer writer = new FileWriter( reportFile );
+    try
+    {
+      writer.write( html );
+    }
+    finally
     {
-      renderer.start("testcase").attr("time",format("%.3f", executionTime/(report.getTestsRun()*1000.0)))
-                                .attr("name",test.test).attr("classname",junitName);
-      if ( test.error != null )
-        renderer.start("failure").attr("message", test.error).attr("type","org.apache.maven.plugin.MojoFailureException")
-                               .text(test.test + ": " + test.error).end();
-      renderer.end();
+      writer.close();
     }
-    renderer.end();
-    junitReportWriter.close();
+  }
+
+  private String getJUnitName(String suiteName)
+  {
+    return suiteName.replace(File.separator, ".");
+  }
+
+  private File getJUnitReportFile(String suiteName)
+  {
+    return new File( getBasedir(), "target/screw-unit/TEST-" + getJUnitName( suiteName ) + ".xml" );
   }
 
 
@@ -208,147 +1857,177 @@ public abstract class AbstractRhinoTestMojo extends AbstractMojo
   }
 
 
-  private Context createAndInitializeContext(Global global)
-  {
-    Context context = ContextFactory.getGlobal().enterContext();
-    global.init(context);
-    context.setOptimizationLevel(-1);
-    context.setLanguageVersion(Context.VERSION_1_5);
-    return context;
-  }
-
-
-
-
-
-	protected abstract void runSuite(Context context, Scriptable scope, File suite) throws Exception;
-	protected abstract SuiteReport parseSuiteReport(Context context, Scriptable scope);
-	protected abstract void generateHumanReadableReport(Context context, Scriptable scope, File suite, String suiteName) throws IOException;
+	/**
+	 * Loads the test framework and the plugin's runner for it into a suite scope that has env.js loaded.
+	 */
+	protected abstract void loadRunner(JavascriptEngine.Session session, File suite) throws IOException;
+	protected abstract void runSuite(JavascriptEngine.Session session, File suite) throws Exception;
+	protected abstract SuiteReport parseSuiteReport(JavascriptEngine.Session session);
+	/**
+	 * The human readable HTML report of a finished suite.  Called on the suite's thread while its session is open;
+	 * the report is written to disk later.
+	 */
+	protected abstract String renderHumanReadableReport(JavascriptEngine.Session session, File suite, String suiteName) throws IOException;
 
 
+  /**
+   * A suite's results.  With a JUnit writer each test goes straight into the report file and only the counts and
+   * the first error are kept, so a suite's memory doesn't grow with its tests; without one, e.g. for the parts of a
+   * split suite or in a forked JVM, the tests are kept for whoever writes the report later.
+   */
   protected class SuiteReport
   {
-    private List<TestReport> tests = new ArrayList<TestReport>();
+    private final List<TestReport> tests;
+    private final List<TestListener> listeners = new ArrayList<TestListener>();
+    private int testsRun;
     private int errors;
     private String firstError;
+    private long executionTime;
+    private final JUnitReportWriter junitWriter;
+    private final String junitName;
+    private IOException writeError;
 
-    public void addTest( String test, String error )
+    public SuiteReport()
     {
-      if (( error != null ) && ( error.trim().length() == 0 ))
-        error = null;
-      tests.add( new TestReport(test, error) );
-      if ( error != null )
-      {
-        if ( firstError == null )
-          firstError = error;
-        errors++;
-      }
+      this( null, null );
     }
 
-    public List<TestReport> getTests()
+    public SuiteReport( JUnitReportWriter junitWriter, String junitName )
     {
-      return tests;
+      this.junitWriter = junitWriter;
+      this.junitName = junitName;
+      this.tests = junitWriter == null ? new ArrayList<TestReport>() : null;
     }
 
-    public int getTestsRun()
+    /**
+     * Hears of every test as it is added, e.g. to record its timing or pass it on from a forked JVM.
+     */
+    public synchronized void addListener( TestListener listener )
     {
-      return tests.size();
+      listeners.add( listener );
     }
 
-    public int getErrors()
+    public void addTest( String test, String error )
     {
-      return errors;
+      addTest( null, test, error, 0, -1, null );
     }
 
-    public String getFirstError()
+    public synchronized void addTest( String module, String test, String error, int assertions, long timeNanos, String output )
     {
-      return firstError;
-    }
-  }
+      if (( error != null ) && ( error.trim().length() == 0 ))
+        error = null;
+      testsRun++;
+      if ( error != null )
+      {
+        if ( firstError == null )
+          firstError = error;
+        errors++;
+      }
 
-  protected class TestReport
-  {
-    String test;
-    String error;
+      if (( tests != null ) || ! listeners.isEmpty() )
+      {
+        TestReport report = new TestReport(module, test, error, assertions, timeNanos, output);
+        if ( tests != null )
+          tests.add( report );
+        for ( TestListener listener : listeners )
+        {
+          try
+          {
+            listener.testAdded( report );
+          }
+          catch ( IOException e )
+          {
+            if ( writeError == null )
+              writeError = e;
+          }
+        }
+      }
 
-    private TestReport(String test, String error)
-    {
-      this.test = test;
-      this.error = error;
+      if (( junitWriter != null ) && ( writeError == null ))
+      {
+        try
+        {
+          junitWriter.testCase( module == null ? junitName : junitName + "." + module, test,
+                                Math.max( timeNanos, 0 ) / 1000000000.0, error, output );
+        }
+        catch ( IOException e )
+        {
+          // reported from finish(); this may be running inside a script callback
+          writeError = e;
+        }
+      }
     }
-  }
-
-  protected class XMLRenderer
-  {
-    private LinkedList<String> elements = new LinkedList<String>();
-    private boolean open;
-    private Writer writer;
 
-    private XMLRenderer(Writer writer) throws IOException
+    /**
+     * Completes the JUnit report with the suite totals.
+     */
+    public synchronized void finish( long executionTime )
+      throws IOException
     {
-      this.writer = writer;
-      writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>");
+      if ( writeError != null )
+        throw writeError;
+      if ( junitWriter != null )
+        junitWriter.close( getTestsRun(), errors, executionTime / 1000.0 );
     }
 
-    public XMLRenderer start( String name ) throws IOException
+    /**
+     * The tests, in the order they ran; only kept by reports without a JUnit writer.
+     */
+    public List<TestReport> getTests()
     {
-      endTag();
-      indent();
-      writer.write("<" + name);
-      elements.addLast( name );
-      open = true;
-      return this;
+      if ( tests == null )
+        throw new IllegalStateException( "The tests of " + junitName + " went straight into its JUnit report" );
+      return tests;
     }
 
-    public XMLRenderer attr( String name, int value ) throws IOException
+    public synchronized int getTestsRun()
     {
-      return attr( name, Integer.toString(value) );
+      return testsRun;
     }
 
-    public XMLRenderer attr( String name, String value ) throws IOException
+    public synchronized int getErrors()
     {
-      if ( ! open )
-        throw new IOException("Attempt to write attribute outside of element");
-      writer.write(" " + name + "=\"" + value + "\"");
-      return this;
+      return errors;
     }
 
-    public XMLRenderer end() throws IOException
+    public synchronized String getFirstError()
     {
-      String name = elements.removeLast();
-      if ( open )
-      {
-        writer.write( "/>" );
-        open = false;
-        return this;
-      }
-
-      indent();
-      writer.write("</" + name + ">");
-      return this;
+      return firstError;
     }
 
-    public XMLRenderer text( String text ) throws IOException
+    public long getExecutionTime()
     {
-      endTag();
-      indent();
-      writer.write( text );
-      return this;
+      return executionTime;
     }
 
-    private void indent()
-      throws IOException
+    public void setExecutionTime( long executionTime )
     {
-      writer.write("\n");
-      for ( String element : elements )
-        writer.write("\t");
+      this.executionTime = executionTime;
     }
+  }
+
+  protected interface TestListener
+  {
+    void testAdded( TestReport test ) throws IOException;
+  }
+
+  protected class TestReport
+  {
+    String module;
+    String test;
+    String error;
+    int assertions;
+    long timeNanos;
+    String output;
 
-    private void endTag() throws IOException
+    private TestReport(String module, String test, String error, int assertions, long timeNanos, String output)
     {
-      if ( open )
-        writer.write(">");
-      open = false;
+      this.module = module;
+      this.test = test;
+      this.error = error;
+      this.assertions = assertions;
+      this.timeNanos = timeNanos;
+      this.output = output;
     }
   }
 
@@ -0,0 +1,166 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the log output of one suite so that suites running on different threads can be written to the
+ * build log one after another, in suite order, instead of interleaving.
+ */
+public class BufferedLog implements Log
+{
+  private static final int DEBUG = 0;
+  private static final int INFO = 1;
+  private static final int WARN = 2;
+  private static final int ERROR = 3;
+
+  private final Log delegate;
+  private final List<Entry> entries = new ArrayList<Entry>();
+
+  public BufferedLog(Log delegate)
+  {
+    this.delegate = delegate;
+  }
+
+  /**
+   * Writes everything buffered so far to the delegate log and empties the buffer.
+   */
+  public void flush()
+  {
+    List<Entry> flushed;
+    synchronized ( entries )
+    {
+      flushed = new ArrayList<Entry>(entries);
+      entries.clear();
+    }
+
+    synchronized ( delegate )
+    {
+      for ( Entry entry : flushed )
+        entry.writeTo(delegate);
+    }
+  }
+
+  public boolean isDebugEnabled()
+  {
+    return delegate.isDebugEnabled();
+  }
+
+  public void debug(CharSequence content)
+  {
+    add(DEBUG, content, null);
+  }
+
+  public void debug(CharSequence content, Throwable error)
+  {
+    add(DEBUG, content, error);
+  }
+
+  public void debug(Throwable error)
+  {
+    add(DEBUG, null, error);
+  }
+
+  public boolean isInfoEnabled()
+  {
+    return delegate.isInfoEnabled();
+  }
+
+  public void info(CharSequence content)
+  {
+    add(INFO, content, null);
+  }
+
+  public void info(CharSequence content, Throwable error)
+  {
+    add(INFO, content, error);
+  }
+
+  public void info(Throwable error)
+  {
+    add(INFO, null, error);
+  }
+
+  public boolean isWarnEnabled()
+  {
+    return delegate.isWarnEnabled();
+  }
+
+  public void warn(CharSequence content)
+  {
+    add(WARN, content, null);
+  }
+
+  public void warn(CharSequence content, Throwable error)
+  {
+    add(WARN, content, error);
+  }
+
+  public void warn(Throwable error)
+  {
+    add(WARN, null, error);
+  }
+
+  public boolean isErrorEnabled()
+  {
+    return delegate.isErrorEnabled();
+  }
+
+  public void error(CharSequence content)
+  {
+    add(ERROR, content, null);
+  }
+
+  public void error(CharSequence content, Throwable error)
+  {
+    add(ERROR, content, error);
+  }
+
+  public void error(Throwable error)
+  {
+    add(ERROR, null, error);
+  }
+
+  private void add(int level, CharSequence content, Throwable error)
+  {
+    synchronized ( entries )
+    {
+      entries.add(new Entry(level, content == null ? null : content.toString(), error));
+    }
+  }
+
+  private static class Entry
+  {
+    private final int level;
+    private final String content;
+    private final Throwable error;
+
+    private Entry(int level, String content, Throwable error)
+    {
+      this.level = level;
+      this.content = content;
+      this.error = error;
+    }
+
+    // SystemStreamLog, the log of mojos run outside a build, doesn't take a null error
+    private void writeTo(Log log)
+    {
+      switch ( level )
+      {
+        case DEBUG:
+          if ( content == null ) log.debug(error); else if ( error == null ) log.debug(content); else log.debug(content, error);
+          break;
+        case INFO:
+          if ( content == null ) log.info(error); else if ( error == null ) log.info(content); else log.info(content, error);
+          break;
+        case WARN:
+          if ( content == null ) log.warn(error); else if ( error == null ) log.warn(content); else log.warn(content, error);
+          break;
+        default:
+          if ( content == null ) log.error(error); else if ( error == null ) log.error(content); else log.error(content, error);
+      }
+    }
+  }
+}
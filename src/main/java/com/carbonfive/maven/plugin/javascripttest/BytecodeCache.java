@@ -0,0 +1,155 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.GeneratedClassLoader;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores the classes Rhino generates for compiled scripts on disk, keyed by a hash of the source, its name, the
+ * optimization level and whether instructions are counted for the watchdog, so that unchanged scripts skip bytecode
+ * generation on later builds.  Several builds, or forks of one, may share the directory.
+ */
+public class BytecodeCache
+{
+  private static final String CLASS_PREFIX = "jtmp.gen.Script_";
+
+  private final File directory;
+
+  private final AtomicInteger loaded = new AtomicInteger();
+  private final AtomicInteger generated = new AtomicInteger();
+
+  public BytecodeCache(File directory)
+  {
+    this.directory = directory;
+  }
+
+  public Script compile(Context context, String source, String name, int optimizationLevel)
+    throws IOException
+  {
+    CompilerEnvirons environment = new CompilerEnvirons();
+    environment.initFromContext(context);
+    environment.setOptimizationLevel(optimizationLevel);
+
+    // classes generated without instruction counting would never let the watchdog know how far a script got
+    String hash = ScriptCache.contentHash(environment.getOptimizationLevel() + "\n" + environment.isGenerateObserverCount() + "\n" + name + "\n" + source);
+    String mainClassName = CLASS_PREFIX + hash;
+    File classDirectory = new File(directory, hash);
+
+    Map<String, byte[]> classes = readClasses(classDirectory);
+    if ( classes == null )
+    {
+      Object[] compiled = new ClassCompiler(environment).compileToClassFiles(source, name, 1, mainClassName);
+      classes = new LinkedHashMap<String, byte[]>();
+      for ( int i=0; i < compiled.length; i += 2 )
+        classes.put((String) compiled[i], (byte[]) compiled[i+1]);
+
+      writeClasses(classDirectory, classes);
+      generated.incrementAndGet();
+    }
+    else
+    {
+      loaded.incrementAndGet();
+    }
+
+    return defineScript(context, mainClassName, classes);
+  }
+
+  public int getLoaded()
+  {
+    return loaded.get();
+  }
+
+  public int getGenerated()
+  {
+    return generated.get();
+  }
+
+  public File getDirectory()
+  {
+    return directory;
+  }
+
+  private Script defineScript(Context context, String mainClassName, Map<String, byte[]> classes)
+  {
+    GeneratedClassLoader loader = context.createClassLoader(context.getApplicationClassLoader());
+    Class<?> mainClass = null;
+    for ( Map.Entry<String, byte[]> entry : classes.entrySet() )
+    {
+      Class<?> definedClass = loader.defineClass(entry.getKey(), entry.getValue());
+      if ( entry.getKey().equals(mainClassName) )
+        mainClass = definedClass;
+    }
+
+    if ( mainClass == null )
+      throw new IllegalStateException("No class " + mainClassName + " in compiled script");
+
+    loader.linkClass(mainClass);
+    try
+    {
+      return (Script) mainClass.newInstance();
+    }
+    catch ( Exception e )
+    {
+      throw new IllegalStateException("Unable to instantiate compiled script " + mainClassName, e);
+    }
+  }
+
+  private Map<String, byte[]> readClasses(File classDirectory)
+    throws IOException
+  {
+    File[] files = classDirectory.listFiles();
+    if (( files == null ) || ( files.length == 0 ))
+      return null;
+
+    Map<String, byte[]> classes = new LinkedHashMap<String, byte[]>();
+    for ( File file : files )
+    {
+      if ( ! file.getName().endsWith(".class") )
+        continue;
+      String className = file.getName().substring(0, file.getName().length() - ".class".length());
+      classes.put(className, ScriptCache.read(file));
+    }
+    return classes;
+  }
+
+  /**
+   * Writes into a scratch directory first and renames it into place, so a concurrent or interrupted build never
+   * sees a partially written entry.  The scratch directory's name is unique across the JVMs sharing the cache.
+   */
+  private void writeClasses(File classDirectory, Map<String, byte[]> classes)
+    throws IOException
+  {
+    File scratch = new File(directory, classDirectory.getName() + "." + UUID.randomUUID() + ".tmp");
+    if ( ! scratch.mkdirs() )
+      throw new IOException("Unable to create " + scratch);
+
+    for ( Map.Entry<String, byte[]> entry : classes.entrySet() )
+    {
+      OutputStream out = new FileOutputStream(new File(scratch, entry.getKey() + ".class"));
+      try
+      {
+        out.write(entry.getValue());
+      }
+      finally
+      {
+        out.close();
+      }
+    }
+
+    if ( ! scratch.renameTo(classDirectory) )
+    {
+      // another thread or build got there first; its classes are identical
+      for ( File file : scratch.listFiles() )
+        file.delete();
+      scratch.delete();
+    }
+  }
+}
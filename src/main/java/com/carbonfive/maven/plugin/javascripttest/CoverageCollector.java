@@ -0,0 +1,310 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Line coverage of the scripts suites load, merged across all suites of a build.  Each suite gets a
+ * {@link SuiteCoverage} which instruments matching scripts as env.js evaluates them and counts into plain int arrays
+ * owned by that suite alone, so counting needs no locking even when suites run in parallel; the counts are added to
+ * the build totals when the suite is done.
+ */
+public class CoverageCollector
+{
+  private final File basedir;
+  private final String[] includes;
+  private final String[] excludes;
+  private final CoverageInstrumenter instrumenter;
+  private final Map<File, FileCoverage> files = new TreeMap<File, FileCoverage>();
+
+  public CoverageCollector(File basedir, String[] includes, String[] excludes, File cacheDirectory)
+    throws IOException
+  {
+    this.basedir = basedir.getCanonicalFile();
+    this.includes = includes;
+    this.excludes = excludes == null ? new String[0] : excludes;
+    this.instrumenter = new CoverageInstrumenter(cacheDirectory);
+  }
+
+  public SuiteCoverage startSuite()
+  {
+    return new SuiteCoverage();
+  }
+
+  public synchronized void merge(SuiteCoverage suite)
+  {
+    for ( SuiteFile suiteFile : suite.files.values() )
+    {
+      FileCoverage coverage = files.get(suiteFile.file);
+      if ( coverage == null )
+        files.put(suiteFile.file, coverage = new FileCoverage(suiteFile.file, suiteFile.instrumented.getLines()));
+      coverage.add(suiteFile.counters);
+    }
+    suite.files.clear();
+  }
+
+  public synchronized void reset()
+  {
+    files.clear();
+  }
+
+  /**
+   * Adds the matching files no suite loaded, so they are reported with no lines covered.
+   */
+  private void addUnloadedFiles()
+    throws IOException
+  {
+    DirectoryScanner scanner = new DirectoryScanner();
+    scanner.setBasedir( basedir );
+    scanner.setIncludes( includes );
+    scanner.setExcludes( excludes );
+    scanner.scan();
+
+    for ( String name : scanner.getIncludedFiles() )
+    {
+      File file = new File( basedir, name ).getCanonicalFile();
+      if ( files.containsKey(file) )
+        continue;
+
+      String source = new String( ScriptCache.read(file), "UTF-8" );
+      CoverageInstrumenter.Instrumented instrumented = instrumenter.instrument( source, file.toURI().toString() );
+      if ( instrumented != null )
+        files.put( file, new FileCoverage( file, instrumented.getLines() ) );
+    }
+  }
+
+  /**
+   * Writes lcov.info and cobertura.xml to the given directory and returns the overall line rate.
+   */
+  public synchronized double writeReports(File directory)
+    throws IOException
+  {
+    addUnloadedFiles();
+    directory.mkdirs();
+    writeLcov( new File( directory, "lcov.info" ) );
+    return writeCobertura( new File( directory, "cobertura.xml" ) );
+  }
+
+  private void writeLcov(File file)
+    throws IOException
+  {
+    PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) ) );
+    try
+    {
+      for ( FileCoverage coverage : files.values() )
+      {
+        out.println( "TN:" );
+        out.println( "SF:" + coverage.file.getPath() );
+        for ( int i=0; i < coverage.lines.length; i++ )
+          out.println( "DA:" + coverage.lines[i] + "," + coverage.hits[i] );
+        out.println( "LF:" + coverage.lines.length );
+        out.println( "LH:" + coverage.getLinesCovered() );
+        out.println( "end_of_record" );
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  private double writeCobertura(File file)
+    throws IOException
+  {
+    // group files into packages by directory, the way Cobertura reports Java sources
+    Map<String, List<FileCoverage>> packages = new TreeMap<String, List<FileCoverage>>();
+    int linesValid = 0;
+    int linesCovered = 0;
+    for ( FileCoverage coverage : files.values() )
+    {
+      String path = relativePath( coverage.file );
+      String packageName = path.lastIndexOf('/') < 0 ? "" : path.substring( 0, path.lastIndexOf('/') ).replace( '/', '.' );
+      List<FileCoverage> classes = packages.get( packageName );
+      if ( classes == null )
+        packages.put( packageName, classes = new ArrayList<FileCoverage>() );
+      classes.add( coverage );
+      linesValid += coverage.lines.length;
+      linesCovered += coverage.getLinesCovered();
+    }
+
+    Writer out = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+    try
+    {
+      out.write( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" );
+      out.write( format( "<coverage line-rate=\"%s\" branch-rate=\"0\" lines-covered=\"%d\" lines-valid=\"%d\" branches-covered=\"0\" branches-valid=\"0\" complexity=\"0\" version=\"1.9\" timestamp=\"%d\">\n",
+                         rate( linesCovered, linesValid ), linesCovered, linesValid, System.currentTimeMillis() ) );
+      out.write( "\t<sources>\n\t\t<source>" + JUnitReportWriter.escapeToString( basedir.getPath(), false ) + "</source>\n\t</sources>\n" );
+      out.write( "\t<packages>\n" );
+      for ( Map.Entry<String, List<FileCoverage>> entry : packages.entrySet() )
+      {
+        int packageValid = 0;
+        int packageCovered = 0;
+        for ( FileCoverage coverage : entry.getValue() )
+        {
+          packageValid += coverage.lines.length;
+          packageCovered += coverage.getLinesCovered();
+        }
+
+        out.write( format( "\t\t<package name=\"%s\" line-rate=\"%s\" branch-rate=\"0\" complexity=\"0\">\n\t\t\t<classes>\n",
+                           JUnitReportWriter.escapeToString( entry.getKey(), true ), rate( packageCovered, packageValid ) ) );
+        for ( FileCoverage coverage : entry.getValue() )
+        {
+          String path = relativePath( coverage.file );
+          out.write( format( "\t\t\t\t<class name=\"%s\" filename=\"%s\" line-rate=\"%s\" branch-rate=\"0\" complexity=\"0\">\n",
+                             JUnitReportWriter.escapeToString( coverage.file.getName(), true ),
+                             JUnitReportWriter.escapeToString( path, true ),
+                             rate( coverage.getLinesCovered(), coverage.lines.length ) ) );
+          out.write( "\t\t\t\t\t<methods/>\n\t\t\t\t\t<lines>\n" );
+          for ( int i=0; i < coverage.lines.length; i++ )
+            out.write( format( "\t\t\t\t\t\t<line number=\"%d\" hits=\"%d\" branch=\"false\"/>\n", coverage.lines[i], coverage.hits[i] ) );
+          out.write( "\t\t\t\t\t</lines>\n\t\t\t\t</class>\n" );
+        }
+        out.write( "\t\t\t</classes>\n\t\t</package>\n" );
+      }
+      out.write( "\t</packages>\n</coverage>\n" );
+    }
+    finally
+    {
+      out.close();
+    }
+    return linesValid == 0 ? 1.0 : (double) linesCovered / linesValid;
+  }
+
+  private static String rate(int covered, int valid)
+  {
+    return format( Locale.ENGLISH, "%.4f", valid == 0 ? 1.0 : (double) covered / valid );
+  }
+
+  private String relativePath(File file)
+  {
+    String path = file.getPath();
+    String base = basedir.getPath() + File.separator;
+    if ( path.startsWith( base ) )
+      path = path.substring( base.length() );
+    return path.replace( File.separatorChar, '/' );
+  }
+
+  /**
+   * The file a script was loaded from, if it is one coverage should be collected for.
+   */
+  private File selectFile(String name)
+  {
+    if (( name == null ) || ! name.startsWith( "file:" ))
+      return null;
+
+    try
+    {
+      String uri = name;
+      int end = uri.indexOf('?') >= 0 ? uri.indexOf('?') : uri.indexOf('#');
+      if ( end >= 0 )
+        uri = uri.substring( 0, end );
+      File file = new File( URI.create( uri.replace( " ", "%20" ) ) ).getCanonicalFile();
+
+      String path = file.getPath();
+      String base = basedir.getPath() + File.separator;
+      if ( ! path.startsWith( base ) )
+        return null;
+      path = path.substring( base.length() );
+
+      boolean included = false;
+      for ( String include : includes )
+        included |= SelectorUtils.matchPath( include.replace( '/', File.separatorChar ), path );
+      for ( String exclude : excludes )
+        included &= ! SelectorUtils.matchPath( exclude.replace( '/', File.separatorChar ), path );
+      return included ? file : null;
+    }
+    catch ( IllegalArgumentException e )
+    {
+      return null;
+    }
+    catch ( IOException e )
+    {
+      return null;
+    }
+  }
+
+  /**
+   * The coverage hooks one suite sees as $coverage.
+   */
+  public class SuiteCoverage
+  {
+    private final Map<String, SuiteFile> files = new HashMap<String, SuiteFile>();
+
+    /**
+     * Called by env.js for every script it evaluates; returns the source to evaluate in its place.
+     */
+    public String instrument(String source, String name)
+    {
+      File file = selectFile( name );
+      if ( file == null )
+        return source;
+
+      CoverageInstrumenter.Instrumented instrumented = instrumenter.instrument( source, name );
+      if ( instrumented == null )
+        return source;
+
+      if ( ! files.containsKey( instrumented.getHash() ) )
+        files.put( instrumented.getHash(), new SuiteFile( file, instrumented ) );
+      return instrumented.getSource();
+    }
+
+    /**
+     * The counters an instrumented script increments, indexed by line.
+     */
+    public int[] counters(String hash)
+    {
+      SuiteFile file = files.get( hash );
+      return file == null ? new int[0] : file.counters;
+    }
+  }
+
+  private static class SuiteFile
+  {
+    final File file;
+    final CoverageInstrumenter.Instrumented instrumented;
+    final int[] counters;
+
+    SuiteFile(File file, CoverageInstrumenter.Instrumented instrumented)
+    {
+      this.file = file;
+      this.instrumented = instrumented;
+      this.counters = new int[instrumented.getMaxLine() + 1];
+    }
+  }
+
+  private static class FileCoverage
+  {
+    final File file;
+    final int[] lines;
+    final long[] hits;
+
+    FileCoverage(File file, int[] lines)
+    {
+      this.file = file;
+      this.lines = lines;
+      this.hits = new long[lines.length];
+    }
+
+    void add(int[] counters)
+    {
+      for ( int i=0; i < lines.length; i++ )
+        if ( lines[i] < counters.length )
+          hits[i] += counters[lines[i]];
+    }
+
+    int getLinesCovered()
+    {
+      int covered = 0;
+      for ( long hit : hits )
+        if ( hit > 0 )
+          covered++;
+      return covered;
+    }
+  }
+}
@@ -0,0 +1,302 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ErrorReporter;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.ast.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adds line counters to a script's source.  Every statement gets a <code>__jtmp_cov_&lt;hash&gt;[line]++</code> in
+ * front of it, where the counter array is a plain Java int[] handed out by the suite's {@link CoverageCollector}.
+ * Instrumented sources are keyed by the hash of the original, kept in memory for the build and on disk between
+ * builds, so each version of a file is parsed and rewritten once.
+ */
+public class CoverageInstrumenter
+{
+  private final File cacheDirectory;
+  private final Map<String, Instrumented> cache = new ConcurrentHashMap<String, Instrumented>();
+
+  public CoverageInstrumenter(File cacheDirectory)
+  {
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  /**
+   * The instrumented version of the given source, or null if it does not parse; the script is then run as is and
+   * Rhino reports the syntax error.
+   */
+  public Instrumented instrument(String source, String name)
+  {
+    String hash = ScriptCache.contentHash(source);
+    Instrumented instrumented = cache.get(hash);
+    if ( instrumented == null )
+    {
+      instrumented = load(hash);
+      if ( instrumented == null )
+      {
+        instrumented = rewrite(source, name, hash);
+        if ( instrumented == null )
+          return null;
+        store(instrumented);
+      }
+      cache.put(hash, instrumented);
+    }
+    return instrumented;
+  }
+
+  private Instrumented rewrite(String source, String name, String hash)
+  {
+    AstRoot root;
+    try
+    {
+      CompilerEnvirons environment = new CompilerEnvirons();
+      environment.setLanguageVersion(Context.VERSION_1_5);
+      root = new Parser(environment, new SilentErrorReporter()).parse(source, name, 1);
+    }
+    catch ( RhinoException e )
+    {
+      return null;
+    }
+
+    final SortedMap<Integer, StringBuilder> insertions = new TreeMap<Integer, StringBuilder>();
+    final SortedSet<Integer> lines = new TreeSet<Integer>();
+    final String counters = counterName(hash);
+    final LineMap lineMap = new LineMap(source);
+
+    root.visit(new NodeVisitor()
+    {
+      public boolean visit(AstNode node)
+      {
+        AstNode parent = node.getParent();
+        if (( parent == null ) || ( node instanceof FunctionNode ) || isBlock(node))
+          return true;
+
+        if ( isBlock(parent) || (( parent instanceof SwitchCase ) && ( node != ((SwitchCase) parent).getExpression() )) )
+        {
+          count(node, false);
+        }
+        else if ((( parent instanceof IfStatement ) && (( node == ((IfStatement) parent).getThenPart() ) || ( node == ((IfStatement) parent).getElsePart() )))
+                 || (( parent instanceof Loop ) && ( node == ((Loop) parent).getBody() ))
+                 || (( parent instanceof WithStatement ) && ( node == ((WithStatement) parent).getStatement() )))
+        {
+          // a lone statement as the body of an if, loop or with: brace it so the counter stays inside
+          count(node, true);
+        }
+        return true;
+      }
+
+      private void count(AstNode node, boolean brace)
+      {
+        int start = node.getAbsolutePosition();
+        int line = lineMap.lineAt(start);
+        lines.add(line);
+        insert(start, ( brace ? "{" : "" ) + counters + "[" + line + "]++;");
+        if ( brace )
+          insert(statementEnd(source, start + node.getLength()), "}");
+      }
+
+      private void insert(int position, String text)
+      {
+        StringBuilder buf = insertions.get(position);
+        if ( buf == null )
+          insertions.put(position, buf = new StringBuilder());
+        // closing braces go before any counter that starts at the same place
+        if ( text.equals("}") )
+          buf.insert(0, text);
+        else
+          buf.append(text);
+      }
+    });
+
+    StringBuilder buf = new StringBuilder(source.length() + lines.size() * 24 + 64);
+    // on the first line, so line numbers in errors and counters stay those of the original
+    buf.append("var ").append(counters).append("=$coverage.counters(\"").append(hash).append("\");");
+    int last = 0;
+    for ( Map.Entry<Integer, StringBuilder> insertion : insertions.entrySet() )
+    {
+      int position = Math.min(insertion.getKey(), source.length());
+      buf.append(source, last, position).append(insertion.getValue());
+      last = position;
+    }
+    buf.append(source, last, source.length());
+
+    int[] lineArray = new int[lines.size()];
+    int i = 0;
+    for ( Integer line : lines )
+      lineArray[i++] = line;
+    return new Instrumented(hash, buf.toString(), lineArray);
+  }
+
+  private static boolean isBlock(AstNode node)
+  {
+    return ( node instanceof Block ) || ( node instanceof AstRoot ) || ( node.getClass() == Scope.class );
+  }
+
+  /**
+   * The end of a statement including its terminating semicolon, which the parser may leave out of the node.
+   */
+  private static int statementEnd(String source, int end)
+  {
+    int i = end;
+    while (( i < source.length() ) && ( source.charAt(i) == ' ' || source.charAt(i) == '\t' ))
+      i++;
+    return ( i < source.length() ) && ( source.charAt(i) == ';' ) ? i + 1 : end;
+  }
+
+  static String counterName(String hash)
+  {
+    return "__jtmp_cov_" + hash.substring(0, 12);
+  }
+
+  private Instrumented load(String hash)
+  {
+    if ( cacheDirectory == null )
+      return null;
+
+    File sourceFile = new File(cacheDirectory, hash + ".js");
+    File linesFile = new File(cacheDirectory, hash + ".lines");
+    if ( ! sourceFile.isFile() || ! linesFile.isFile() )
+      return null;
+
+    try
+    {
+      String[] lineStrings = new String(ScriptCache.read(linesFile), "UTF-8").trim().split(",");
+      int[] lines = new int[lineStrings[0].length() == 0 ? 0 : lineStrings.length];
+      for ( int i=0; i < lines.length; i++ )
+        lines[i] = Integer.parseInt(lineStrings[i]);
+      return new Instrumented(hash, new String(ScriptCache.read(sourceFile), "UTF-8"), lines);
+    }
+    catch ( IOException e )
+    {
+      return null;
+    }
+    catch ( NumberFormatException e )
+    {
+      return null;
+    }
+  }
+
+  private void store(Instrumented instrumented)
+  {
+    if ( cacheDirectory == null )
+      return;
+
+    StringBuilder lines = new StringBuilder();
+    for ( int line : instrumented.getLines() )
+      lines.append(lines.length() == 0 ? "" : ",").append(line);
+
+    // the cache only saves work, a failed write is not worth failing the build over
+    try
+    {
+      cacheDirectory.mkdirs();
+      write(new File(cacheDirectory, instrumented.getHash() + ".lines"), lines.toString());
+      write(new File(cacheDirectory, instrumented.getHash() + ".js"), instrumented.getSource());
+    }
+    catch ( IOException e )
+    {
+      new File(cacheDirectory, instrumented.getHash() + ".lines").delete();
+    }
+  }
+
+  private static void write(File file, String text)
+    throws IOException
+  {
+    // write then rename, so parallel suites never read a half written file
+    File scratch = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    Writer out = new OutputStreamWriter(new FileOutputStream(scratch), "UTF-8");
+    try
+    {
+      out.write(text);
+    }
+    finally
+    {
+      out.close();
+    }
+    if ( ! scratch.renameTo(file) )
+    {
+      scratch.delete();
+      if ( ! file.isFile() )
+        throw new IOException("Could not write " + file);
+    }
+  }
+
+  public static class Instrumented
+  {
+    private final String hash;
+    private final String source;
+    private final int[] lines;
+
+    Instrumented(String hash, String source, int[] lines)
+    {
+      this.hash = hash;
+      this.source = source;
+      this.lines = lines;
+    }
+
+    public String getHash()
+    {
+      return hash;
+    }
+
+    public String getSource()
+    {
+      return source;
+    }
+
+    /**
+     * Lines with at least one statement, in ascending order.
+     */
+    public int[] getLines()
+    {
+      return lines;
+    }
+
+    public int getMaxLine()
+    {
+      return lines.length == 0 ? 0 : lines[lines.length - 1];
+    }
+  }
+
+  private static class LineMap
+  {
+    private final List<Integer> lineStarts = new ArrayList<Integer>();
+
+    LineMap(String source)
+    {
+      lineStarts.add(0);
+      for ( int i=0; i < source.length(); i++ )
+        if ( source.charAt(i) == '\n' )
+          lineStarts.add(i + 1);
+    }
+
+    int lineAt(int position)
+    {
+      int index = Collections.binarySearch(lineStarts, position);
+      return ( index >= 0 ? index : -index - 2 ) + 1;
+    }
+  }
+
+  private static class SilentErrorReporter implements ErrorReporter
+  {
+    public void warning(String message, String sourceName, int line, String lineSource, int lineOffset)
+    {
+    }
+
+    public void error(String message, String sourceName, int line, String lineSource, int lineOffset)
+    {
+      throw new EvaluatorException(message);
+    }
+
+    public EvaluatorException runtimeError(String message, String sourceName, int line, String lineSource, int lineOffset)
+    {
+      return new EvaluatorException(message);
+    }
+  }
+}
@@ -0,0 +1,300 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.*;
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Where the time of a build goes: each suite is timed phase by phase, from creating its context to writing its
+ * JUnit report, and the totals are written at the end of the build as JSON and in the Prometheus text exposition
+ * format for build analytics to pick up.
+ * <p>
+ * Heap use is sampled at every phase boundary, so the peak of a suite is the highest of those samples; with
+ * several threads it includes whatever the other suites allocated meanwhile.
+ */
+public class ExecutionMetrics
+{
+  public static final String SETUP = "setup";
+  public static final String BOOTSTRAP = "bootstrap";
+  public static final String RUNNER = "runner";
+  public static final String RUN = "run";
+  public static final String PARSE = "parse";
+  public static final String HUMAN_REPORT = "human_report";
+  public static final String JUNIT_REPORT = "junit_report";
+
+  private static final List<String> PHASES = Arrays.asList( SETUP, BOOTSTRAP, RUNNER, RUN, PARSE, HUMAN_REPORT, JUNIT_REPORT );
+
+  private final long startNanos = System.nanoTime();
+  private final List<SuiteMetrics> suites = new ArrayList<SuiteMetrics>();
+
+  public SuiteMetrics startSuite(String suiteName)
+  {
+    return new SuiteMetrics( suiteName );
+  }
+
+  public synchronized void add(SuiteMetrics suite)
+  {
+    suite.end();
+    suites.add( suite );
+  }
+
+  public synchronized List<SuiteMetrics> getSuites()
+  {
+    List<SuiteMetrics> sorted = new ArrayList<SuiteMetrics>( suites );
+    Collections.sort( sorted, new Comparator<SuiteMetrics>()
+    {
+      public int compare(SuiteMetrics a, SuiteMetrics b)
+      {
+        return a.name.compareTo( b.name );
+      }
+    } );
+    return sorted;
+  }
+
+  /**
+   * Seconds spent in the given phase, summed over all suites.
+   */
+  public synchronized double getPhaseSeconds(String phase)
+  {
+    double seconds = 0;
+    for ( SuiteMetrics suite : suites )
+      seconds += suite.getPhaseSeconds( phase );
+    return seconds;
+  }
+
+  public synchronized void writeJson(File file, ScriptCache scriptCache)
+    throws IOException
+  {
+    PrintWriter out = open( file );
+    try
+    {
+      out.println( "{" );
+      out.println( format( Locale.ENGLISH, "  \"timestamp\": %d,", System.currentTimeMillis() ) );
+      out.println( format( Locale.ENGLISH, "  \"seconds\": %.6f,", ( System.nanoTime() - startNanos ) / 1e9 ) );
+      out.println( "  \"phases\": " + phasesJson( null ) + "," );
+      out.println( format( Locale.ENGLISH, "  \"scripts\": { \"compiled\": %d, \"cacheHits\": %d, \"interpretedFallbacks\": %d, \"compileSeconds\": %.6f },",
+                           scriptCache.getMisses(), scriptCache.getHits(), scriptCache.getInterpretedFallbacks(), scriptCache.getCompileMillis() / 1e3 ) );
+      out.println( "  \"suites\": [" );
+      List<SuiteMetrics> sorted = getSuites();
+      for ( int i=0; i < sorted.size(); i++ )
+      {
+        SuiteMetrics suite = sorted.get(i);
+        out.print( format( Locale.ENGLISH, "    { \"name\": \"%s\", \"tests\": %d, \"failures\": %d, \"seconds\": %.6f, \"heapPeakDeltaBytes\": %d, \"heapEndDeltaBytes\": %d, \"phases\": %s }",
+                           escapeJson( suite.name ), suite.tests, suite.failures, suite.getSeconds(), suite.getHeapPeakDelta(), suite.getHeapEndDelta(), phasesJson( suite ) ) );
+        out.println( i < sorted.size() - 1 ? "," : "" );
+      }
+      out.println( "  ]" );
+      out.println( "}" );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  public synchronized void writePrometheus(File file, ScriptCache scriptCache)
+    throws IOException
+  {
+    List<SuiteMetrics> sorted = getSuites();
+    PrintWriter out = open( file );
+    try
+    {
+      header( out, "javascript_test_build_seconds", "Wall clock time of the test run." );
+      sample( out, "javascript_test_build_seconds", "", ( System.nanoTime() - startNanos ) / 1e9 );
+
+      header( out, "javascript_test_phase_seconds", "Time spent in each phase, summed over all suites." );
+      for ( String phase : PHASES )
+        sample( out, "javascript_test_phase_seconds", labels( "phase", phase ), getPhaseSeconds( phase ) );
+
+      header( out, "javascript_test_suite_phase_seconds", "Time a suite spent in each phase." );
+      for ( SuiteMetrics suite : sorted )
+        for ( String phase : PHASES )
+          sample( out, "javascript_test_suite_phase_seconds", labels( "suite", suite.name, "phase", phase ), suite.getPhaseSeconds( phase ) );
+
+      header( out, "javascript_test_suite_tests", "Tests run by a suite." );
+      for ( SuiteMetrics suite : sorted )
+        sample( out, "javascript_test_suite_tests", labels( "suite", suite.name ), suite.tests );
+
+      header( out, "javascript_test_suite_failures", "Failed tests of a suite." );
+      for ( SuiteMetrics suite : sorted )
+        sample( out, "javascript_test_suite_failures", labels( "suite", suite.name ), suite.failures );
+
+      header( out, "javascript_test_suite_heap_peak_delta_bytes", "Highest heap use sampled while a suite ran, over the heap use when it started." );
+      for ( SuiteMetrics suite : sorted )
+        sample( out, "javascript_test_suite_heap_peak_delta_bytes", labels( "suite", suite.name ), suite.getHeapPeakDelta() );
+
+      header( out, "javascript_test_suite_heap_end_delta_bytes", "Heap use once a suite was torn down, over the heap use when it started." );
+      for ( SuiteMetrics suite : sorted )
+        sample( out, "javascript_test_suite_heap_end_delta_bytes", labels( "suite", suite.name ), suite.getHeapEndDelta() );
+
+      header( out, "javascript_test_scripts_compiled", "Scripts compiled, each once per build." );
+      sample( out, "javascript_test_scripts_compiled", "", scriptCache.getMisses() );
+      header( out, "javascript_test_script_cache_hits", "Scripts found already compiled." );
+      sample( out, "javascript_test_script_cache_hits", "", scriptCache.getHits() );
+      header( out, "javascript_test_scripts_interpreted", "Scripts interpreted after failing to compile to bytecode." );
+      sample( out, "javascript_test_scripts_interpreted", "", scriptCache.getInterpretedFallbacks() );
+      header( out, "javascript_test_script_compile_seconds", "Time spent compiling scripts." );
+      sample( out, "javascript_test_script_compile_seconds", "", scriptCache.getCompileMillis() / 1e3 );
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  private String phasesJson(SuiteMetrics suite)
+  {
+    StringBuilder buf = new StringBuilder( "{ " );
+    for ( String phase : PHASES )
+    {
+      double seconds = suite == null ? getPhaseSeconds( phase ) : suite.getPhaseSeconds( phase );
+      buf.append( buf.length() > 2 ? ", " : "" ).append( format( Locale.ENGLISH, "\"%s\": %.6f", phase, seconds ) );
+    }
+    return buf.append( " }" ).toString();
+  }
+
+  private static PrintWriter open(File file)
+    throws IOException
+  {
+    file.getParentFile().mkdirs();
+    return new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) ) );
+  }
+
+  private static void header(PrintWriter out, String name, String help)
+  {
+    out.print( "# HELP " + name + " " + help + "\n" );
+    out.print( "# TYPE " + name + " gauge\n" );
+  }
+
+  private static void sample(PrintWriter out, String name, String labels, double value)
+  {
+    out.print( name + labels + " " + ( value == Math.rint( value ) ? Long.toString( (long) value ) : format( Locale.ENGLISH, "%.6f", value ) ) + "\n" );
+  }
+
+  private static String labels(String... namesAndValues)
+  {
+    StringBuilder buf = new StringBuilder( "{" );
+    for ( int i=0; i < namesAndValues.length; i += 2 )
+    {
+      String value = namesAndValues[i + 1].replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+      buf.append( i > 0 ? "," : "" ).append( namesAndValues[i] ).append( "=\"" ).append( value ).append( '"' );
+    }
+    return buf.append( "}" ).toString();
+  }
+
+  static String escapeJson(String text)
+  {
+    StringBuilder buf = new StringBuilder( text.length() );
+    for ( int i=0; i < text.length(); i++ )
+    {
+      char c = text.charAt(i);
+      if (( c == '"' ) || ( c == '\\' ))
+        buf.append( '\\' ).append( c );
+      else if ( c < ' ' )
+        buf.append( format( "\\u%04x", (int) c ) );
+      else
+        buf.append( c );
+    }
+    return buf.toString();
+  }
+
+  /**
+   * The phases of one suite, timed on the thread that runs it.
+   */
+  public static class SuiteMetrics
+  {
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final long heapAtStart = usedHeap();
+    private final long[] phaseNanos = new long[PHASES.size()];
+    private long heapPeak = heapAtStart;
+    private long heapAtEnd = heapAtStart;
+    private int phase = -1;
+    private long phaseStart;
+    private long endNanos;
+    private int tests;
+    private int failures;
+
+    SuiteMetrics(String name)
+    {
+      this.name = name;
+    }
+
+    /**
+     * Ends the current phase, if any, and starts the given one.
+     */
+    public synchronized void phase(String name)
+    {
+      end();
+      phase = PHASES.indexOf( name );
+      phaseStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the current phase.
+     */
+    public synchronized void end()
+    {
+      long now = System.nanoTime();
+      if ( phase >= 0 )
+        phaseNanos[phase] += now - phaseStart;
+      phase = -1;
+      endNanos = now;
+      heapAtEnd = usedHeap();
+      heapPeak = Math.max( heapPeak, heapAtEnd );
+    }
+
+    /**
+     * Adds time spent in a phase elsewhere, e.g. writing reports in the background.
+     */
+    public synchronized void record(String phase, long nanos)
+    {
+      int index = PHASES.indexOf( phase );
+      if ( index >= 0 )
+        phaseNanos[index] += nanos;
+    }
+
+    public void setResults(int tests, int failures)
+    {
+      this.tests = tests;
+      this.failures = failures;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public synchronized double getPhaseSeconds(String phase)
+    {
+      int index = PHASES.indexOf( phase );
+      return index < 0 ? 0 : phaseNanos[index] / 1e9;
+    }
+
+    public double getSeconds()
+    {
+      return ( endNanos - startNanos ) / 1e9;
+    }
+
+    public long getHeapPeakDelta()
+    {
+      return Math.max( heapPeak - heapAtStart, 0 );
+    }
+
+    /**
+     * Heap use when the suite was done and torn down, over the heap use when it started; garbage not yet collected
+     * included.
+     */
+    public long getHeapEndDelta()
+    {
+      return heapAtEnd - heapAtStart;
+    }
+
+    private static long usedHeap()
+    {
+      Runtime runtime = Runtime.getRuntime();
+      return runtime.totalMemory() - runtime.freeMemory();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.codehaus.plexus.util.DirectoryScanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Detects added, changed and removed suite pages, scripts and stylesheets under a directory by comparing
+ * modification times and sizes between scans.  Polling keeps the plugin on the Java 5 runtime it targets; a scan
+ * of a typical project's web sources takes a few milliseconds.
+ */
+public class FileWatcher
+{
+  private static final String[] INCLUDES = { "**/*.html", "**/*.htm", "**/*.js", "**/*.css" };
+  private static final String[] EXCLUDES = { "target/**" };
+
+  private final File directory;
+  private Map<File, Long> snapshot;
+
+  public FileWatcher(File directory)
+    throws IOException
+  {
+    this.directory = directory.getCanonicalFile();
+    this.snapshot = scan();
+  }
+
+  /**
+   * Blocks until at least one file changes, then keeps collecting changes until none have arrived for the quiet
+   * period, so that a save touching several files triggers a single run.
+   */
+  public Set<File> waitForChanges(long interval, long quietPeriod)
+    throws InterruptedException
+  {
+    Set<File> changed = new LinkedHashSet<File>();
+    while ( changed.isEmpty() )
+    {
+      Thread.sleep( interval );
+      changed.addAll( poll() );
+    }
+
+    Set<File> more;
+    do
+    {
+      Thread.sleep( quietPeriod );
+      more = poll();
+      changed.addAll( more );
+    }
+    while ( ! more.isEmpty() );
+    return changed;
+  }
+
+  /**
+   * Files added, changed or removed since the previous scan.
+   */
+  public Set<File> poll()
+  {
+    Map<File, Long> current = scan();
+    Set<File> changed = new LinkedHashSet<File>();
+    for ( Map.Entry<File, Long> entry : current.entrySet() )
+      if ( ! entry.getValue().equals( snapshot.get(entry.getKey()) ) )
+        changed.add( entry.getKey() );
+    for ( File file : snapshot.keySet() )
+      if ( ! current.containsKey(file) )
+        changed.add( file );
+
+    snapshot = current;
+    return changed;
+  }
+
+  private Map<File, Long> scan()
+  {
+    DirectoryScanner scanner = new DirectoryScanner();
+    scanner.setBasedir( directory );
+    scanner.setIncludes( INCLUDES );
+    scanner.setExcludes( EXCLUDES );
+    scanner.addDefaultExcludes();
+    scanner.scan();
+
+    Map<File, Long> files = new HashMap<File, Long>();
+    for ( String name : scanner.getIncludedFiles() )
+    {
+      File file = new File( directory, name );
+      files.put( file, file.lastModified() * 31 + file.length() );
+    }
+    return files;
+  }
+}
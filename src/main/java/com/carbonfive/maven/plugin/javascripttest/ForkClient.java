@@ -0,0 +1,194 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The mojo's end of one forked JVM running {@link ForkedSuiteRunner}.  The fork's stderr, where suites print, is
+ * copied to the build log.
+ */
+public class ForkClient
+{
+  private static final long EXIT_TIMEOUT_MILLIS = 10000;
+
+  private final Process process;
+  private final ForkProtocol protocol;
+  private final Thread stderrPump;
+
+  public ForkClient(List<String> command, File workingDirectory, String mojoClass, Map<String, String> configuration, final Log log)
+    throws IOException
+  {
+    process = new ProcessBuilder( command ).directory( workingDirectory ).start();
+    protocol = new ForkProtocol( process.getInputStream(), process.getOutputStream() );
+
+    stderrPump = new Thread( "javascript-test-fork-stderr" )
+    {
+      public void run()
+      {
+        try
+        {
+          BufferedReader stderr = new BufferedReader( new InputStreamReader( process.getErrorStream() ) );
+          for ( String line = stderr.readLine(); line != null; line = stderr.readLine() )
+            log.info( line );
+        }
+        catch ( IOException e )
+        {
+          // the fork is gone
+        }
+      }
+    };
+    stderrPump.setDaemon( true );
+    stderrPump.start();
+
+    List<String> fields = new ArrayList<String>();
+    fields.add( ForkProtocol.CONFIGURE );
+    fields.add( mojoClass );
+    for ( Map.Entry<String, String> entry : configuration.entrySet() )
+    {
+      fields.add( entry.getKey() );
+      fields.add( entry.getValue() );
+    }
+    protocol.write( fields.toArray( new String[fields.size()] ) );
+
+    String[] hello = protocol.read();
+    if (( hello == null ) || ! ForkProtocol.HELLO.equals( hello[0] ))
+      throw new IOException( "The forked JVM did not start: " + describeExit() );
+  }
+
+  /**
+   * Runs a suite in the fork, writing its log to the given log and passing its tests to the handler as they come in,
+   * so the tests a fork finished are known even if it dies halfway through the suite.
+   */
+  public SuiteResult run(String suiteName, Log log, TestHandler tests)
+    throws IOException
+  {
+    protocol.write( ForkProtocol.RUN, suiteName );
+
+    SuiteResult result = new SuiteResult();
+    for ( String[] message = protocol.read(); message != null; message = protocol.read() )
+    {
+      String type = message[0];
+      if ( ForkProtocol.LOG.equals( type ) )
+        log( log, message[1], message[2] );
+      else if ( ForkProtocol.TEST.equals( type ) )
+        tests.testFinished( message[1], message[2], message[3], Integer.parseInt( message[4] ), Long.parseLong( message[5] ), message[6] );
+      else if ( ForkProtocol.DEPENDENCY.equals( type ) )
+        result.dependencies.add( new File( message[1] ) );
+      else if ( ForkProtocol.END.equals( type ) )
+      {
+        result.millis = Long.parseLong( message[1] );
+        result.finished = true;
+        return result;
+      }
+      else if ( ForkProtocol.FAILED.equals( type ) )
+      {
+        result.failure = "failure".equals( message[1] );
+        result.failureMessage = message[2];
+        return result;
+      }
+    }
+    throw new IOException( "The forked JVM died while running " + suiteName + ": " + describeExit() );
+  }
+
+  /**
+   * Asks the fork to quit, and kills it if it does not.
+   */
+  public void close()
+  {
+    try
+    {
+      protocol.write( ForkProtocol.QUIT );
+    }
+    catch ( IOException e )
+    {
+      // already gone
+    }
+
+    Thread killer = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          Thread.sleep( EXIT_TIMEOUT_MILLIS );
+          process.destroy();
+        }
+        catch ( InterruptedException e )
+        {
+          // exited in time
+        }
+      }
+    };
+    killer.setDaemon( true );
+    killer.start();
+    try
+    {
+      process.waitFor();
+      stderrPump.join( EXIT_TIMEOUT_MILLIS );
+    }
+    catch ( InterruptedException e )
+    {
+      process.destroy();
+      Thread.currentThread().interrupt();
+    }
+    finally
+    {
+      killer.interrupt();
+      try
+      {
+        protocol.close();
+      }
+      catch ( IOException e )
+      {
+        // nothing left to tell the fork
+      }
+    }
+  }
+
+  private String describeExit()
+  {
+    try
+    {
+      return "exit code " + process.exitValue();
+    }
+    catch ( IllegalThreadStateException e )
+    {
+      return "it stopped answering";
+    }
+  }
+
+  private static void log(Log log, String level, String message)
+  {
+    if ( "debug".equals( level ) )
+      log.debug( message );
+    else if ( "warn".equals( level ) )
+      log.warn( message );
+    else if ( "error".equals( level ) )
+      log.error( message );
+    else
+      log.info( message );
+  }
+
+  /**
+   * Takes the {@link ForkProtocol#TEST} messages of a suite.
+   */
+  public interface TestHandler
+  {
+    void testFinished(String module, String test, String error, int assertions, long timeNanos, String output)
+      throws IOException;
+  }
+
+  /**
+   * What a fork reported back for one suite, apart from its tests.
+   */
+  public static class SuiteResult
+  {
+    final Set<File> dependencies = new LinkedHashSet<File>();
+    long millis;
+    boolean finished;
+    boolean failure;
+    String failureMessage;
+  }
+}
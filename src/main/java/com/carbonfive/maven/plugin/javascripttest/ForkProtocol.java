@@ -0,0 +1,140 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The line protocol between the mojo and its forked JVMs, over the fork's stdin and stdout in UTF-8.  Every message
+ * is one line of tab separated fields, the first of which is the message type; tabs, line breaks and backslashes in
+ * fields are escaped with a backslash, and \- stands for null.
+ * <pre>
+ *   to the fork     C  &lt;mojo class&gt; (&lt;parameter&gt; &lt;value&gt;)*   configure, answered by H when ready
+ *                   R  &lt;suite&gt;                                run a suite
+ *                   Q                                        quit
+ *   from the fork   H                                        ready for suites
+ *                   L  &lt;level&gt; &lt;message&gt;                     a line of the suite's log
+ *                   T  &lt;module&gt; &lt;test&gt; &lt;error&gt; &lt;assertions&gt; &lt;nanos&gt; &lt;output&gt;   a test result
+ *                   D  &lt;file&gt;                                 a file the suite loaded
+ *                   E  &lt;millis&gt;                               the suite is done
+ *                   F  &lt;failure|error&gt; &lt;message&gt;             the suite could not finish
+ * </pre>
+ */
+public class ForkProtocol
+{
+  public static final String CONFIGURE = "C";
+  public static final String RUN = "R";
+  public static final String QUIT = "Q";
+  public static final String HELLO = "H";
+  public static final String LOG = "L";
+  public static final String TEST = "T";
+  public static final String DEPENDENCY = "D";
+  public static final String END = "E";
+  public static final String FAILED = "F";
+
+  private static final String NULL = "\\-";
+
+  private final BufferedReader in;
+  private final Writer out;
+
+  public ForkProtocol(InputStream in, OutputStream out)
+    throws IOException
+  {
+    this.in = new BufferedReader( new InputStreamReader( in, "UTF-8" ) );
+    this.out = new BufferedWriter( new OutputStreamWriter( out, "UTF-8" ) );
+  }
+
+  /**
+   * The fields of the next message, or null at the end of the stream.
+   */
+  public String[] read()
+    throws IOException
+  {
+    String line = in.readLine();
+    return line == null ? null : decode( line );
+  }
+
+  public synchronized void write(String... fields)
+    throws IOException
+  {
+    out.write( encode( fields ) );
+    out.write( '\n' );
+    out.flush();
+  }
+
+  public void close()
+    throws IOException
+  {
+    try
+    {
+      out.close();
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  static String encode(String... fields)
+  {
+    StringBuilder line = new StringBuilder();
+    for ( int i=0; i < fields.length; i++ )
+    {
+      if ( i > 0 )
+        line.append( '\t' );
+      if ( fields[i] == null )
+      {
+        line.append( NULL );
+        continue;
+      }
+      for ( int j=0; j < fields[i].length(); j++ )
+      {
+        char c = fields[i].charAt(j);
+        switch ( c )
+        {
+          case '\\': line.append( "\\\\" ); break;
+          case '\t': line.append( "\\t" ); break;
+          case '\n': line.append( "\\n" ); break;
+          case '\r': line.append( "\\r" ); break;
+          default: line.append( c );
+        }
+      }
+    }
+    return line.toString();
+  }
+
+  static String[] decode(String line)
+  {
+    List<String> fields = new ArrayList<String>();
+    StringBuilder field = new StringBuilder();
+    boolean isNull = false;
+    for ( int i=0; i < line.length(); i++ )
+    {
+      char c = line.charAt(i);
+      if ( c == '\t' )
+      {
+        fields.add( isNull ? null : field.toString() );
+        field.setLength( 0 );
+        isNull = false;
+      }
+      else if (( c == '\\' ) && ( i + 1 < line.length() ))
+      {
+        char escaped = line.charAt( ++i );
+        switch ( escaped )
+        {
+          case 't': field.append( '\t' ); break;
+          case 'n': field.append( '\n' ); break;
+          case 'r': field.append( '\r' ); break;
+          case '-': isNull = true; break;
+          default: field.append( escaped );
+        }
+      }
+      else
+      {
+        field.append( c );
+      }
+    }
+    fields.add( isNull ? null : field.toString() );
+    return fields.toArray( new String[fields.size()] );
+  }
+}
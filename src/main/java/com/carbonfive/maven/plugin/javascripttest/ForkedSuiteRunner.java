@@ -0,0 +1,192 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The main class of a forked JVM: configures a mojo as the build configured its own, then runs the suites it is
+ * sent one at a time and streams their results back, see {@link ForkProtocol}.  Whatever suites print goes to
+ * stderr, as stdout carries the protocol.  The only argument, --debug, also sends debug output.
+ */
+public class ForkedSuiteRunner
+{
+  public static void main(String[] args)
+    throws Exception
+  {
+    OutputStream stdout = new FileOutputStream( FileDescriptor.out );
+    System.setOut( System.err );
+    ForkProtocol protocol = new ForkProtocol( System.in, stdout );
+
+    String[] message = protocol.read();
+    if (( message == null ) || ! ForkProtocol.CONFIGURE.equals( message[0] ))
+      throw new IllegalStateException( "Expected the configuration first" );
+    Map<String, String> configuration = new LinkedHashMap<String, String>();
+    for ( int i=2; i + 1 < message.length; i += 2 )
+      configuration.put( message[i], message[i + 1] );
+    AbstractRhinoTestMojo mojo = (AbstractRhinoTestMojo) Class.forName( message[1] ).newInstance();
+    mojo.configureFork( configuration );
+    protocol.write( ForkProtocol.HELLO );
+
+    Log log = new ProtocolLog( protocol, ( args.length > 0 ) && "--debug".equals( args[0] ) );
+    for ( message = protocol.read(); ( message != null ) && ForkProtocol.RUN.equals( message[0] ); message = protocol.read() )
+      runSuite( mojo, message[1], protocol, log );
+    System.exit( 0 );
+  }
+
+  private static void runSuite(AbstractRhinoTestMojo mojo, String suiteName, final ForkProtocol protocol, Log log)
+    throws IOException
+  {
+    long startTime = System.currentTimeMillis();
+    try
+    {
+      // each test is sent as soon as it is recorded, so the mojo keeps what ran even if this JVM dies
+      mojo.executeForkedSuite( suiteName, log, new AbstractRhinoTestMojo.TestListener()
+      {
+        public void testAdded(AbstractRhinoTestMojo.TestReport test)
+          throws IOException
+        {
+          protocol.write( ForkProtocol.TEST, test.module, test.test, test.error, String.valueOf( test.assertions ),
+                          String.valueOf( test.timeNanos ), test.output );
+        }
+      } );
+    }
+    catch ( MojoFailureException e )
+    {
+      protocol.write( ForkProtocol.FAILED, "failure", e.getMessage() );
+      return;
+    }
+    catch ( Throwable e )
+    {
+      StringWriter trace = new StringWriter();
+      e.printStackTrace( new PrintWriter( trace ) );
+      protocol.write( ForkProtocol.FAILED, "error", trace.toString() );
+      return;
+    }
+
+    if ( mojo.getSuiteDependencies( suiteName ) != null )
+      for ( File dependency : mojo.getSuiteDependencies( suiteName ) )
+        protocol.write( ForkProtocol.DEPENDENCY, dependency.getPath() );
+    protocol.write( ForkProtocol.END, String.valueOf( System.currentTimeMillis() - startTime ) );
+  }
+
+  /**
+   * Sends the suite's log to the mojo, which writes it to the build log.
+   */
+  private static class ProtocolLog implements Log
+  {
+    private final ForkProtocol protocol;
+    private final boolean debug;
+
+    ProtocolLog(ForkProtocol protocol, boolean debug)
+    {
+      this.protocol = protocol;
+      this.debug = debug;
+    }
+
+    private void log(String level, CharSequence content, Throwable error)
+    {
+      if ( "debug".equals( level ) && ! debug )
+        return;
+
+      String message = content == null ? "" : content.toString();
+      if ( error != null )
+      {
+        StringWriter trace = new StringWriter();
+        error.printStackTrace( new PrintWriter( trace ) );
+        message = message.length() == 0 ? trace.toString() : message + "\n" + trace;
+      }
+      try
+      {
+        protocol.write( ForkProtocol.LOG, level, message );
+      }
+      catch ( IOException e )
+      {
+        // the mojo is gone; the fork ends when its stdin closes
+      }
+    }
+
+    public boolean isDebugEnabled()
+    {
+      return debug;
+    }
+
+    public void debug(CharSequence content)
+    {
+      log( "debug", content, null );
+    }
+
+    public void debug(CharSequence content, Throwable error)
+    {
+      log( "debug", content, error );
+    }
+
+    public void debug(Throwable error)
+    {
+      log( "debug", null, error );
+    }
+
+    public boolean isInfoEnabled()
+    {
+      return true;
+    }
+
+    public void info(CharSequence content)
+    {
+      log( "info", content, null );
+    }
+
+    public void info(CharSequence content, Throwable error)
+    {
+      log( "info", content, error );
+    }
+
+    public void info(Throwable error)
+    {
+      log( "info", null, error );
+    }
+
+    public boolean isWarnEnabled()
+    {
+      return true;
+    }
+
+    public void warn(CharSequence content)
+    {
+      log( "warn", content, null );
+    }
+
+    public void warn(CharSequence content, Throwable error)
+    {
+      log( "warn", content, error );
+    }
+
+    public void warn(Throwable error)
+    {
+      log( "warn", null, error );
+    }
+
+    public boolean isErrorEnabled()
+    {
+      return true;
+    }
+
+    public void error(CharSequence content)
+    {
+      log( "error", content, null );
+    }
+
+    public void error(CharSequence content, Throwable error)
+    {
+      log( "error", content, error );
+    }
+
+    public void error(Throwable error)
+    {
+      log( "error", null, error );
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+
+/**
+ * Holds parallel suites back while the heap is short of headroom.  A suite may start when no other suite is
+ * running, or when starting it would still leave the reserve free; what a suite needs is estimated as the average
+ * heap growth of the suites that finished so far.  Used heap includes garbage not yet collected, so a suite that is
+ * held back checks again every so often rather than only when another suite finishes.
+ */
+public class HeapGovernor
+{
+  private static final long POLL_MILLIS = 100;
+  private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+  private final long reserveBytes;
+  private int running;
+  private long growthTotal;
+  private int growthCount;
+  private int heldBack;
+
+  public HeapGovernor(long reserveBytes)
+  {
+    this.reserveBytes = reserveBytes;
+  }
+
+  public synchronized void acquire()
+    throws InterruptedException
+  {
+    boolean waited = false;
+    while (( running > 0 ) && ( getFreeHeap() - getEstimate() < reserveBytes ))
+    {
+      waited = true;
+      wait( POLL_MILLIS );
+    }
+    if ( waited )
+      heldBack++;
+    running++;
+  }
+
+  /**
+   * Starts a suite, or another context for one, only if it can start right away.
+   */
+  public synchronized boolean tryAcquire()
+  {
+    if (( running > 0 ) && ( getFreeHeap() - getEstimate() < reserveBytes ))
+      return false;
+    running++;
+    return true;
+  }
+
+  public synchronized void release()
+  {
+    running--;
+    notifyAll();
+  }
+
+  /**
+   * Records how much the heap grew while a suite ran.
+   */
+  public synchronized void record(long heapGrowth)
+  {
+    if ( heapGrowth <= 0 )
+      return;
+    growthTotal += heapGrowth;
+    growthCount++;
+  }
+
+  public synchronized long getEstimate()
+  {
+    return growthCount == 0 ? 0 : growthTotal / growthCount;
+  }
+
+  /**
+   * How many suites had to wait for headroom before they could start.
+   */
+  public synchronized int getHeldBack()
+  {
+    return heldBack;
+  }
+
+  public static long getUsedHeap()
+  {
+    return MEMORY.getHeapMemoryUsage().getUsed();
+  }
+
+  public static long getFreeHeap()
+  {
+    MemoryUsage heap = MEMORY.getHeapMemoryUsage();
+    long max = heap.getMax() < 0 ? Runtime.getRuntime().maxMemory() : heap.getMax();
+    return max - heap.getUsed();
+  }
+}
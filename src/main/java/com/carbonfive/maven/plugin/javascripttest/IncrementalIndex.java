@@ -0,0 +1,141 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Remembers, for every suite, the content hash of each file it loaded (the suite page, its scripts and its
+ * stylesheets) and whether it passed, so that a later build can skip suites that passed and whose inputs have not
+ * changed since.
+ */
+public class IncrementalIndex
+{
+  private static final String SEPARATOR = "|";
+  private static final String RESULT = "result";
+  private static final String PASSED = "passed";
+  private static final String FAILED = "failed";
+
+  private final File file;
+  private final File basedir;
+  private final Properties entries = new Properties();
+
+  public IncrementalIndex(File file, File basedir)
+  {
+    this.file = file;
+    this.basedir = basedir;
+  }
+
+  public synchronized void load()
+    throws IOException
+  {
+    entries.clear();
+    if ( ! file.exists() )
+      return;
+
+    InputStream in = new FileInputStream(file);
+    try
+    {
+      entries.load(in);
+    }
+    finally
+    {
+      in.close();
+    }
+  }
+
+  public synchronized void save()
+    throws IOException
+  {
+    file.getParentFile().mkdirs();
+    OutputStream out = new FileOutputStream(file);
+    try
+    {
+      entries.store(out, "javascript-test suite dependencies");
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Returns why the suite needs to run, or null when it passed last time and none of its dependencies changed.
+   */
+  public synchronized String getReasonToRun(String suiteName)
+    throws IOException
+  {
+    String result = entries.getProperty(suiteName + SEPARATOR + RESULT);
+    if ( result == null )
+      return "no previous run recorded";
+    if ( ! PASSED.equals(result) )
+      return "failed last time";
+
+    String prefix = suiteName + SEPARATOR + "dependency" + SEPARATOR;
+    for ( String key : keys() )
+    {
+      if ( ! key.startsWith(prefix) )
+        continue;
+
+      String path = key.substring(prefix.length());
+      File dependency = resolve(path);
+      if ( ! dependency.isFile() )
+        return path + " was removed";
+      if ( ! hash(dependency).equals(entries.getProperty(key)) )
+        return path + " changed";
+    }
+    return null;
+  }
+
+  public synchronized int getDependencyCount(String suiteName)
+  {
+    String prefix = suiteName + SEPARATOR + "dependency" + SEPARATOR;
+    int count = 0;
+    for ( String key : keys() )
+      if ( key.startsWith(prefix) )
+        count++;
+    return count;
+  }
+
+  public synchronized void record(String suiteName, Collection<File> dependencies, boolean passed)
+    throws IOException
+  {
+    String prefix = suiteName + SEPARATOR;
+    for ( String key : keys() )
+      if ( key.startsWith(prefix) )
+        entries.remove(key);
+
+    for ( File dependency : dependencies )
+      if ( dependency.isFile() )
+        entries.setProperty(prefix + "dependency" + SEPARATOR + relativize(dependency), hash(dependency));
+
+    entries.setProperty(prefix + RESULT, passed ? PASSED : FAILED);
+  }
+
+  private String relativize(File dependency)
+    throws IOException
+  {
+    String base = basedir.getCanonicalPath() + File.separator;
+    String path = dependency.getCanonicalPath();
+    return path.startsWith(base) ? path.substring(base.length()) : path;
+  }
+
+  private File resolve(String path)
+  {
+    File dependency = new File(path);
+    return dependency.isAbsolute() ? dependency : new File(basedir, path);
+  }
+
+  private List<String> keys()
+  {
+    List<String> keys = new ArrayList<String>();
+    for ( Object key : entries.keySet() )
+      keys.add((String) key);
+    return keys;
+  }
+
+  static String hash(File file)
+    throws IOException
+  {
+    return ScriptCache.contentHash(ScriptCache.read(file));
+  }
+}
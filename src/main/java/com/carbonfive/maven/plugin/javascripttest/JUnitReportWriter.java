@@ -0,0 +1,169 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.*;
+
+import static java.lang.String.format;
+
+/**
+ * Writes a JUnit style XML report one testcase at a time as results arrive.  Testcases are spooled through a
+ * small buffer to a scratch file next to the report; the report itself is assembled on {@link #close} once the
+ * suite totals for the testsuite element are known, so memory use does not grow with the size of the suite.
+ * Everything is written as UTF-8 and all text and attribute values are escaped.
+ */
+public class JUnitReportWriter
+{
+  private static final int BUFFER_SIZE = 8192;
+
+  private final File reportFile;
+  private final File spoolFile;
+  private final String suiteName;
+  private Writer spool;
+
+  public JUnitReportWriter(File reportFile, String suiteName)
+    throws IOException
+  {
+    this.reportFile = reportFile;
+    this.spoolFile = new File(reportFile.getPath() + ".part");
+    this.suiteName = suiteName;
+
+    reportFile.getParentFile().mkdirs();
+    spool = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spoolFile), "UTF-8"), BUFFER_SIZE);
+  }
+
+  public void testCase(String className, String name, double seconds, String failure, String systemOut)
+    throws IOException
+  {
+    spool.write("\n\t<testcase time=\"");
+    spool.write(format("%.3f", seconds));
+    spool.write("\" name=\"");
+    escape(name, true);
+    spool.write("\" classname=\"");
+    escape(className, true);
+    spool.write("\"");
+
+    if (( failure == null ) && ( systemOut == null ))
+    {
+      spool.write("/>");
+      return;
+    }
+
+    spool.write(">");
+    if ( failure != null )
+    {
+      spool.write("\n\t\t<failure message=\"");
+      escape(failure, true);
+      spool.write("\" type=\"org.apache.maven.plugin.MojoFailureException\">");
+      escape(name + ": " + failure, false);
+      spool.write("</failure>");
+    }
+    if ( systemOut != null )
+    {
+      spool.write("\n\t\t<system-out>");
+      escape(systemOut, false);
+      spool.write("</system-out>");
+    }
+    spool.write("\n\t</testcase>");
+  }
+
+  /**
+   * Writes the report: the testsuite element with the final totals followed by the spooled testcases.
+   */
+  public void close(int tests, int failures, double seconds)
+    throws IOException
+  {
+    spool.close();
+
+    Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8"), BUFFER_SIZE);
+    try
+    {
+      out.write("<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<testsuite failures=\"");
+      out.write(Integer.toString(failures));
+      out.write("\" time=\"");
+      out.write(format("%.3f", seconds));
+      out.write("\" skipped=\"0\" errors=\"0\" tests=\"");
+      out.write(Integer.toString(tests));
+      out.write("\" name=\"");
+      out.write(escapeToString(suiteName, true));
+      out.write("\">\n\t<properties/>");
+
+      Reader in = new InputStreamReader(new FileInputStream(spoolFile), "UTF-8");
+      try
+      {
+        char[] cb = new char[BUFFER_SIZE];
+        for ( int c = in.read(cb); c >= 0; c = in.read(cb) )
+          out.write(cb, 0, c);
+      }
+      finally
+      {
+        in.close();
+      }
+
+      out.write("\n</testsuite>\n");
+    }
+    finally
+    {
+      out.close();
+      spoolFile.delete();
+    }
+  }
+
+  /**
+   * Drops the spooled testcases without writing a report, e.g. when the suite could not be run at all.
+   */
+  public void abort()
+  {
+    try
+    {
+      spool.close();
+    }
+    catch ( IOException e )
+    {
+      // nothing worth reporting, the scratch file is removed either way
+    }
+    spoolFile.delete();
+  }
+
+  private void escape(String text, boolean attribute)
+    throws IOException
+  {
+    spool.write(escapeToString(text, attribute));
+  }
+
+  static String escapeToString(String text, boolean attribute)
+  {
+    if ( text == null )
+      return "";
+
+    StringBuilder buf = null;
+    for ( int i=0; i < text.length(); i++ )
+    {
+      char c = text.charAt(i);
+      String replacement = null;
+      switch ( c )
+      {
+        case '&': replacement = "&amp;"; break;
+        case '<': replacement = "&lt;"; break;
+        case '>': replacement = "&gt;"; break;
+        case '"': replacement = attribute ? "&quot;" : null; break;
+        case '\n': replacement = attribute ? "&#10;" : null; break;
+        case '\r': replacement = attribute ? "&#13;" : null; break;
+        case '\t': replacement = attribute ? "&#9;" : null; break;
+        default:
+          // characters XML 1.0 does not allow at all
+          if (( c < 0x20 ) || ( c == 0xfffe ) || ( c == 0xffff ))
+            replacement = "\ufffd";
+      }
+
+      if (( replacement != null ) && ( buf == null ))
+        buf = new StringBuilder(text.length() + 16).append(text, 0, i);
+      if ( buf != null )
+      {
+        if ( replacement != null )
+          buf.append(replacement);
+        else
+          buf.append(c);
+      }
+    }
+    return buf == null ? text : buf.toString();
+  }
+}
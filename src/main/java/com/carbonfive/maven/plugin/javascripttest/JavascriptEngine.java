@@ -0,0 +1,77 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A JavaScript runtime suites can run on: {@link RhinoEngine}, the default, or {@link Jsr223Engine}, for any
+ * javax.script engine.  Each suite runs in its own {@link Session}.
+ */
+public interface JavascriptEngine
+{
+  /**
+   * The engine's name and version, for the build log.
+   */
+  String getName();
+
+  /**
+   * Whether env.js runs on this engine.  Suites that need a DOM only run on engines that do.
+   */
+  boolean supportsDom();
+
+  /**
+   * A fresh global scope for a suite, used from the calling thread until it is closed.
+   */
+  Session openSession() throws IOException;
+
+  /**
+   * One suite's global scope.  Functions are given as the body of a function without arguments, e.g.
+   * "return jtmp_locate_css();", and are called with the global as this.
+   */
+  interface Session
+  {
+    /**
+     * Makes a Java object a global of the suite.
+     */
+    void put(String name, Object value);
+
+    /**
+     * The Java object behind a global set with {@link #put}, or null.
+     */
+    Object get(String name);
+
+    boolean has(String name);
+
+    /**
+     * Loads env.js, or headless.js, the DOM-free shim, with external scripts compiled through the build's script
+     * cache where the engine has one.
+     */
+    void execEnvironment(boolean headless) throws IOException;
+
+    void exec(String script, String name);
+
+    void execClasspathScript(String path) throws IOException;
+
+    void execScriptFile(File file) throws IOException;
+
+    String execStringFunction(String function, String name, Object... args);
+
+    /**
+     * The strings in the array the function returns, or null if it returns nothing.
+     */
+    String[] execStringArrayFunction(String function, String name, Object... args);
+
+    /**
+     * The array of objects the function returns as one row per object, holding the given properties as strings,
+     * null where a property is null or not set.
+     */
+    String[][] execRecordArrayFunction(String function, String name, String... properties);
+
+    /**
+     * Cancels the suite's timers, closes its window and clears its globals, see {@link RhinoHelper#teardown}.
+     */
+    void teardown() throws IOException;
+
+    void close();
+  }
+}
@@ -0,0 +1,307 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.debug.DebugFrame;
+import org.mozilla.javascript.debug.DebuggableScript;
+import org.mozilla.javascript.debug.Debugger;
+
+import java.io.*;
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Records call counts and inclusive and exclusive time for every interpreted function a suite calls.  Attached to
+ * a suite's context as its debugger, so it costs nothing unless profiling is turned on; compiled scripts (see
+ * optimizationLevel) never report to a debugger and are not profiled.  One profiler serves one suite, and so one
+ * thread.
+ */
+public class JavascriptProfiler implements Debugger
+{
+  private final Map<DebuggableScript, Frame> frames = new IdentityHashMap<DebuggableScript, Frame>();
+  private final Map<String, FunctionStats> functions = new HashMap<String, FunctionStats>();
+  private final Map<String, long[]> stacks = new HashMap<String, long[]>();
+  private final LinkedList<Call> calls = new LinkedList<Call>();
+
+  public void attach(Context context)
+  {
+    context.setDebugger(this, null);
+  }
+
+  public void detach(Context context)
+  {
+    context.setDebugger(null, null);
+
+    // unwind whatever was still running, e.g. after a suite was aborted
+    while ( ! calls.isEmpty() )
+      exit();
+  }
+
+  public void handleCompilationDone(Context context, DebuggableScript fnOrScript, String source)
+  {
+  }
+
+  public DebugFrame getFrame(Context context, DebuggableScript fnOrScript)
+  {
+    Frame frame = frames.get(fnOrScript);
+    if ( frame == null )
+    {
+      frame = new Frame(describe(fnOrScript), sourceName(fnOrScript));
+      frames.put(fnOrScript, frame);
+    }
+    return frame;
+  }
+
+  private void enter(Frame frame)
+  {
+    FunctionStats stats = functions.get(frame.name);
+    if ( stats == null )
+    {
+      stats = new FunctionStats(frame.name, frame.source);
+      functions.put(frame.name, stats);
+    }
+    stats.calls++;
+    stats.active++;
+
+    Call parent = calls.peek();
+    String stack = parent == null ? frame.name : parent.stack + ";" + frame.name;
+    calls.push(new Call(stats, stack, System.nanoTime()));
+  }
+
+  private void exit()
+  {
+    Call call = calls.pop();
+    long elapsed = System.nanoTime() - call.start;
+    long self = elapsed - call.children;
+
+    FunctionStats stats = call.function;
+    stats.active--;
+    // a recursive call's time is already part of the outermost call's
+    if ( stats.active == 0 )
+      stats.inclusiveNanos += elapsed;
+    stats.exclusiveNanos += self;
+
+    long[] stackTime = stacks.get(call.stack);
+    if ( stackTime == null )
+      stacks.put(call.stack, stackTime = new long[1]);
+    stackTime[0] += self;
+
+    Call parent = calls.peek();
+    if ( parent != null )
+      parent.children += elapsed;
+  }
+
+  public Collection<FunctionStats> getFunctions()
+  {
+    return functions.values();
+  }
+
+  /**
+   * Writes the hot-function report: time per source, then functions by exclusive time.
+   */
+  public void writeReport(File file, String suiteName)
+    throws IOException
+  {
+    List<FunctionStats> sorted = new ArrayList<FunctionStats>(functions.values());
+    Collections.sort(sorted);
+
+    Map<String, long[]> sources = new HashMap<String, long[]>();
+    long total = 0;
+    for ( FunctionStats stats : sorted )
+    {
+      long[] sourceTotals = sources.get(stats.source);
+      if ( sourceTotals == null )
+        sources.put(stats.source, sourceTotals = new long[2]);
+      sourceTotals[0] += stats.calls;
+      sourceTotals[1] += stats.exclusiveNanos;
+      total += stats.exclusiveNanos;
+    }
+    List<Map.Entry<String, long[]>> sortedSources = new ArrayList<Map.Entry<String, long[]>>(sources.entrySet());
+    Collections.sort(sortedSources, new Comparator<Map.Entry<String, long[]>>()
+    {
+      public int compare(Map.Entry<String, long[]> a, Map.Entry<String, long[]> b)
+      {
+        return a.getValue()[1] > b.getValue()[1] ? -1 : ( a.getValue()[1] == b.getValue()[1] ? 0 : 1 );
+      }
+    });
+
+    PrintWriter out = open(file);
+    try
+    {
+      out.println(format("Profile of %s: %.1fms in %d function(s)", suiteName, total / 1e6, sorted.size()));
+      out.println();
+      out.println(format("%10s %10s %6s  %s", "self ms", "calls", "self%", "source"));
+      for ( Map.Entry<String, long[]> source : sortedSources )
+        out.println(format("%10.1f %10d %5.1f%%  %s", source.getValue()[1] / 1e6, source.getValue()[0],
+                           percent(source.getValue()[1], total), source.getKey()));
+      out.println();
+      out.println(format("%10s %10s %10s %6s  %s", "self ms", "total ms", "calls", "self%", "function"));
+      for ( FunctionStats stats : sorted )
+        out.println(format("%10.1f %10.1f %10d %5.1f%%  %s", stats.exclusiveNanos / 1e6, stats.inclusiveNanos / 1e6,
+                           stats.calls, percent(stats.exclusiveNanos, total), stats.name));
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Writes one line per distinct call stack with its exclusive time in microseconds, the collapsed format
+   * flamegraph.pl and similar tools read.
+   */
+  public void writeCollapsedStacks(File file)
+    throws IOException
+  {
+    List<String> sorted = new ArrayList<String>(stacks.keySet());
+    Collections.sort(sorted);
+
+    PrintWriter out = open(file);
+    try
+    {
+      for ( String stack : sorted )
+      {
+        long micros = stacks.get(stack)[0] / 1000;
+        if ( micros > 0 )
+          out.println(stack + " " + micros);
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  private static PrintWriter open(File file)
+    throws IOException
+  {
+    file.getParentFile().mkdirs();
+    return new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+  }
+
+  private static double percent(long part, long total)
+  {
+    return total == 0 ? 0 : part * 100.0 / total;
+  }
+
+  private static String sourceName(DebuggableScript script)
+  {
+    return script.getSourceName() == null ? "<unknown>" : script.getSourceName();
+  }
+
+  private static String describe(DebuggableScript script)
+  {
+    String name = script.isFunction() ? script.getFunctionName() : null;
+    if (( name == null ) || ( name.length() == 0 ))
+      name = script.isFunction() ? "<anonymous>" : "<script>";
+
+    int line = Integer.MAX_VALUE;
+    int[] lines = script.getLineNumbers();
+    if ( lines != null )
+      for ( int l : lines )
+        line = Math.min(line, l);
+
+    // ';' separates frames in the collapsed stack format
+    String description = name + " (" + sourceName(script) + ( line == Integer.MAX_VALUE ? "" : ":" + line ) + ")";
+    return description.replace(';', ',').replace('\n', ' ');
+  }
+
+  public static class FunctionStats implements Comparable<FunctionStats>
+  {
+    private final String name;
+    private final String source;
+    private long calls;
+    private long inclusiveNanos;
+    private long exclusiveNanos;
+    private int active;
+
+    FunctionStats(String name, String source)
+    {
+      this.name = name;
+      this.source = source;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public String getSource()
+    {
+      return source;
+    }
+
+    public long getCalls()
+    {
+      return calls;
+    }
+
+    public long getInclusiveNanos()
+    {
+      return inclusiveNanos;
+    }
+
+    public long getExclusiveNanos()
+    {
+      return exclusiveNanos;
+    }
+
+    public int compareTo(FunctionStats other)
+    {
+      if ( exclusiveNanos != other.exclusiveNanos )
+        return exclusiveNanos > other.exclusiveNanos ? -1 : 1;
+      return name.compareTo(other.name);
+    }
+  }
+
+  private static class Call
+  {
+    final FunctionStats function;
+    final String stack;
+    final long start;
+    long children;
+
+    Call(FunctionStats function, String stack, long start)
+    {
+      this.function = function;
+      this.stack = stack;
+      this.start = start;
+    }
+  }
+
+  private class Frame implements DebugFrame
+  {
+    final String name;
+    final String source;
+
+    Frame(String name, String source)
+    {
+      this.name = name;
+      this.source = source;
+    }
+
+    public void onEnter(Context context, Scriptable activation, Scriptable thisObj, Object[] args)
+    {
+      enter(this);
+    }
+
+    public void onExit(Context context, boolean byThrow, Object resultOrException)
+    {
+      if ( ! calls.isEmpty() )
+        exit();
+    }
+
+    public void onLineChange(Context context, int lineNumber)
+    {
+    }
+
+    public void onExceptionThrown(Context context, Throwable ex)
+    {
+    }
+
+    public void onDebuggerStatement(Context context)
+    {
+    }
+  }
+}
@@ -0,0 +1,291 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import javax.script.Invocable;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Any JavaScript engine on the plugin's class path that implements javax.script, e.g. Nashorn or GraalJS.  env.js
+ * is built for Rhino, so only headless suites run here; {@link #SHELL_SCRIPT} stands in for the few Rhino shell
+ * functions headless.js uses.  Every session gets an engine of its own, as engines differ in how far separate
+ * bindings on one engine really keep suites apart.
+ */
+public class Jsr223Engine implements JavascriptEngine
+{
+  private static final String SHELL_SCRIPT = "jsr223-shell.js";
+
+  // results are copied into Java lists from JavaScript, which every engine can call into
+  private static final String STRINGS_BRIDGE =
+    "(function(array, list) { if (array == null) return false; " +
+    "for (var i = 0; i < array.length; i++) list.add(array[i] == null ? null : String(array[i])); return true; })";
+  private static final String RECORDS_BRIDGE =
+    "(function(array, properties, list) { if (array == null) return false; " +
+    "for (var i = 0; i < array.length; i++) for (var j = 0; j < properties.length; j++) { " +
+    "var value = array[i][properties[j]]; list.add(value == null ? null : String(value)); } return true; })";
+
+  private final ScriptEngineFactory factory;
+
+  /**
+   * The engine of the given name, or with no name the first JavaScript engine found.
+   */
+  public Jsr223Engine(String engineName)
+  {
+    ScriptEngineManager manager = new ScriptEngineManager( Jsr223Engine.class.getClassLoader() );
+    if ( engineName != null )
+    {
+      ScriptEngine engine = manager.getEngineByName( engineName );
+      if ( engine == null )
+        throw new IllegalArgumentException( "No javax.script engine named " + engineName + " on the class path" );
+      factory = engine.getFactory();
+      return;
+    }
+
+    for ( ScriptEngineFactory candidate : manager.getEngineFactories() )
+    {
+      if ( candidate.getMimeTypes().contains( "application/javascript" ) || candidate.getMimeTypes().contains( "text/javascript" ) )
+      {
+        factory = candidate;
+        return;
+      }
+    }
+    throw new IllegalArgumentException( "No javax.script JavaScript engine on the class path" );
+  }
+
+  public String getName()
+  {
+    return factory.getEngineName() + " " + factory.getEngineVersion();
+  }
+
+  /**
+   * The class of the engine's factory, to find the engine's jar by.
+   */
+  public Class<?> getEngineClass()
+  {
+    return factory.getClass();
+  }
+
+  public boolean supportsDom()
+  {
+    return false;
+  }
+
+  public Session openSession()
+    throws IOException
+  {
+    Jsr223Session session = new Jsr223Session( factory.getScriptEngine() );
+    Shell shell = new Shell( session );
+    session.put( "$shell", shell );
+    session.put( "$scripts", shell );
+    session.execClasspathScript( SHELL_SCRIPT );
+    return session;
+  }
+
+  private static RuntimeException scriptError(ScriptException e)
+  {
+    return new IllegalStateException( e.getMessage(), e );
+  }
+
+  private static class Jsr223Session implements Session
+  {
+    private final ScriptEngine engine;
+    private final Object global;
+    private final Object stringsBridge;
+    private final Object recordsBridge;
+    private final Map<String, Object> functions = new HashMap<String, Object>();
+
+    Jsr223Session(ScriptEngine engine)
+    {
+      this.engine = engine;
+      try
+      {
+        global = engine.eval( "this" );
+        stringsBridge = engine.eval( STRINGS_BRIDGE );
+        recordsBridge = engine.eval( RECORDS_BRIDGE );
+      }
+      catch ( ScriptException e )
+      {
+        throw scriptError( e );
+      }
+    }
+
+    public void put(String name, Object value)
+    {
+      engine.put( name, value );
+    }
+
+    public Object get(String name)
+    {
+      return engine.get( name );
+    }
+
+    public boolean has(String name)
+    {
+      return engine.getBindings( ScriptContext.ENGINE_SCOPE ).containsKey( name );
+    }
+
+    public void execEnvironment(boolean headless)
+      throws IOException
+    {
+      if ( ! headless )
+        throw new UnsupportedOperationException( "env.js only runs on Rhino" );
+      execClasspathScript( "headless.js" );
+    }
+
+    public void exec(String script, String name)
+    {
+      eval( script, name );
+    }
+
+    public void execClasspathScript(String path)
+      throws IOException
+    {
+      InputStream resource = Jsr223Engine.class.getClassLoader().getResourceAsStream( path );
+      if ( resource == null )
+        throw new FileNotFoundException( "classpath:" + path );
+
+      Reader in = new InputStreamReader( resource, "UTF-8" );
+      try
+      {
+        eval( ScriptCache.read( in ), "classpath:" + path );
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+
+    public void execScriptFile(File file)
+      throws IOException
+    {
+      eval( new String( ScriptCache.read( file ), "UTF-8" ), file.toURI().toString() );
+    }
+
+    public String execStringFunction(String function, String name, Object... args)
+    {
+      Object result = call( function, name, args );
+      return result == null ? null : result.toString();
+    }
+
+    public String[] execStringArrayFunction(String function, String name, Object... args)
+    {
+      List<String> strings = new ArrayList<String>();
+      if ( Boolean.FALSE.equals( invoke( stringsBridge, call( function, name, args ), strings ) ) )
+        return null;
+      return strings.toArray( new String[strings.size()] );
+    }
+
+    public String[][] execRecordArrayFunction(String function, String name, String... properties)
+    {
+      List<String> values = new ArrayList<String>();
+      if ( Boolean.FALSE.equals( invoke( recordsBridge, call( function, name ), properties, values ) ) )
+        return null;
+
+      String[][] records = new String[ properties.length == 0 ? 0 : values.size() / properties.length ][];
+      for ( int i=0; i < records.length; i++ )
+        records[i] = values.subList( i * properties.length, ( i + 1 ) * properties.length ).toArray( new String[properties.length] );
+      return records;
+    }
+
+    public void teardown()
+      throws IOException
+    {
+      execClasspathScript( "teardown.js" );
+    }
+
+    public void close()
+    {
+      // the engine and its global go with the session
+    }
+
+    private Object call(String function, String name, Object... args)
+    {
+      // the mojos call the same few functions again and again; each is only evaluated once per session
+      Object fn = functions.get( function );
+      if ( fn == null )
+      {
+        fn = eval( "(function() {" + function + "})", name );
+        functions.put( function, fn );
+      }
+      return invoke( fn, args );
+    }
+
+    private Object invoke(Object function, Object... args)
+    {
+      Object[] callArgs = new Object[ args.length + 1 ];
+      callArgs[0] = global;
+      System.arraycopy( args, 0, callArgs, 1, args.length );
+      try
+      {
+        return ((Invocable) engine).invokeMethod( function, "call", callArgs );
+      }
+      catch ( ScriptException e )
+      {
+        throw scriptError( e );
+      }
+      catch ( NoSuchMethodException e )
+      {
+        throw new IllegalStateException( "Not a function: " + function, e );
+      }
+    }
+
+    private Object eval(String script, String name)
+    {
+      engine.put( ScriptEngine.FILENAME, name );
+      try
+      {
+        return engine.eval( script );
+      }
+      catch ( ScriptException e )
+      {
+        throw scriptError( e );
+      }
+    }
+  }
+
+  /**
+   * What jsr223-shell.js ($shell) and headless.js ($scripts) call back into: printing, reading the scripts a suite
+   * loads, and evaluating them in the suite's global.
+   */
+  public static class Shell
+  {
+    private final Jsr223Session session;
+
+    Shell(Jsr223Session session)
+    {
+      this.session = session;
+    }
+
+    public void print(String line)
+    {
+      System.out.println( line );
+    }
+
+    public String readUrl(String url, String charset)
+      throws IOException
+    {
+      Reader in = new InputStreamReader( new URL( url ).openStream(), charset );
+      try
+      {
+        return ScriptCache.read( in );
+      }
+      finally
+      {
+        in.close();
+      }
+    }
+
+    public void exec(Object global, String source, String name)
+    {
+      session.exec( source, name );
+    }
+  }
+}
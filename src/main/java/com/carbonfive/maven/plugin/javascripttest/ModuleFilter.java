@@ -0,0 +1,58 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.util.*;
+
+/**
+ * The QUnit modules one part of a suite split by module runs, exposed to qunit-modules.js as $modules.  Tests
+ * declared before the first module() belong to the first part.
+ */
+public class ModuleFilter
+{
+  private final Set<String> modules;
+  private final boolean unnamed;
+
+  public ModuleFilter(Collection<String> modules, boolean unnamed)
+  {
+    this.modules = new HashSet<String>( modules );
+    this.unnamed = unnamed;
+  }
+
+  /**
+   * A filter that runs no tests, to find a suite's modules.
+   */
+  public static ModuleFilter none()
+  {
+    return new ModuleFilter( Collections.<String>emptySet(), false );
+  }
+
+  /**
+   * Deals the modules, in the order the suite declares them, out between at most the given number of parts.
+   */
+  public static List<ModuleFilter> partition(List<String> modules, int parts)
+  {
+    int count = Math.max( Math.min( parts, modules.size() ), 1 );
+    List<List<String>> shares = new ArrayList<List<String>>();
+    for ( int i=0; i < count; i++ )
+      shares.add( new ArrayList<String>() );
+    for ( int i=0; i < modules.size(); i++ )
+      shares.get( i % count ).add( modules.get(i) );
+
+    List<ModuleFilter> filters = new ArrayList<ModuleFilter>();
+    for ( int i=0; i < count; i++ )
+      filters.add( new ModuleFilter( shares.get(i), i == 0 ) );
+    return filters;
+  }
+
+  /**
+   * Whether tests of the module run in this part; null for tests outside any module.
+   */
+  public boolean accepts(String module)
+  {
+    return module == null ? unnamed : modules.contains( module );
+  }
+
+  public int size()
+  {
+    return modules.size();
+  }
+}
@@ -18,10 +18,11 @@
 package com.carbonfive.maven.plugin.javascripttest;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import org.mozilla.javascript.Context;
-import org.mozilla.javascript.Scriptable;
+import java.net.URI;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.codehaus.plexus.util.SelectorUtils;
 
 
 /**
@@ -31,39 +32,168 @@ import org.mozilla.javascript.Scriptable;
  */
 public class QUnitTestMojo extends AbstractRhinoTestMojo {
 
+	private static final String LOADED_SCRIPTS_FUNCTION = "return Envjs.loadedScripts();";
+
+	/**
+	 * Suites that never touch the DOM, as include patterns.  They run on a small shim for window, timers and
+	 * console instead of env.js and jQuery, and start in milliseconds.  Suites that are plain .js files always run
+	 * this way and can load the code under test with importScripts(...).
+	 *
+	 * @parameter
+	 */
+	protected String[] headlessIncludes;
+
+	/**
+	 * Suites to split by module, as include patterns, for suites too big to gain from running suites in parallel.
+	 * A first pass that runs no tests finds their modules, which then run on splitWorkers contexts at once; the
+	 * results are merged into one report per suite.
+	 *
+	 * @parameter
+	 */
+	protected String[] splitIncludes;
+
+	/**
+	 * How many contexts each suite in splitIncludes is split between.  With threads above 1 a suite only gets the
+	 * contexts the suites running alongside it leave free, so the build never runs more than threads at once.
+	 *
+	 * @parameter expression="${javascript-test.splitWorkers}" default-value="4"
+	 */
+	protected int splitWorkers = 4;
+
+	/**
+	 * Keep the scripts each headless suite page runs, in order, under target/javascript-test/bundles, so later
+	 * builds run a page whose scripts haven't changed without looking for them again, loading them as classes from
+	 * the bytecode cache so that an unchanged suite compiles nothing.  Only applies on Rhino with an
+	 * optimizationLevel of 0 or more: at -1 scripts are compiled for the interpreter in every build anyway, and a
+	 * bundle would save little more than hashing the page's scripts costs.
+	 *
+	 * @parameter expression="${javascript-test.suiteBundles}" default-value="true"
+	 */
+	protected boolean suiteBundles = true;
+
+	@Override
+	protected boolean isHeadless(File suite) {
+		if ( suite.getName().toLowerCase().endsWith(".js") )
+			return true;
+		return matches( headlessIncludes, suite );
+	}
+
+	@Override
+	protected int getModuleWorkers(File suite) {
+		return matches( splitIncludes, suite ) ? splitWorkers : 1;
+	}
+
+	private boolean matches(String[] includes, File suite) {
+		if ( includes == null )
+			return false;
+
+		String path = getRelativePath( suite );
+		for ( String include : includes )
+			if ( SelectorUtils.matchPath( include.replace( '/', File.separatorChar ), path ) )
+				return true;
+		return false;
+	}
+
+	private String getRelativePath(File suite) {
+		return suite.getPath().substring( getBasedir().getPath().length() + 1 );
+	}
+
 	@Override
-	protected void runSuite(Context context, Scriptable scope, File suite) throws Exception {
-		RhinoHelper.execClasspathScript(context, scope, "jquery.js");
-		RhinoHelper.execClasspathScript(context, scope, "qunit.js");
-		
-		RhinoHelper.execClasspathScript(context, scope, "qunit-runner.js");
+	protected void loadRunner(JavascriptEngine.Session session, File suite) throws IOException {
+		if ( isHeadless( suite ) ) {
+			session.execClasspathScript("qunit.js");
+			session.execClasspathScript("qunit-headless-runner.js");
+		} else {
+			session.execClasspathScript("jquery.js");
+			session.execClasspathScript("qunit.js");
+
+			session.execClasspathScript("qunit-runner.js");
+		}
+
+		// part of a suite split by module
+		if ( session.has("$modules") )
+			session.execClasspathScript("qunit-modules.js");
+	}
+
+	@Override
+	protected void runSuite(JavascriptEngine.Session session, File suite) throws Exception {
+		if ( isHeadless( suite ) ) {
+			// a file: URI has nothing that needs escaping in a string literal
+			String url = suite.getCanonicalFile().toURI().toString();
+			if ( suite.getName().toLowerCase().endsWith(".js") || ! usesBundles( session ) ) {
+				session.exec( "Envjs.loadSuite(\"" + url + "\"); Envjs.wait();", "start" );
+			} else {
+				session.put( "$bundle", getBundle( session, suite ).getScripts() );
+				session.exec( "Envjs.loadBundle(\"" + url + "\", $bundle); Envjs.wait();", "start" );
+			}
+			return;
+		}
 
 		String code = "window.location = \"" + suite.getAbsolutePath() + "\";";
 
-		RhinoHelper.exec( code, "suite.html", context, scope );
+		session.exec( code, "suite.html" );
 
         //importScripts(context, scope, suite);
 
-        // Trigger test execution
-        //RhinoHelper.exec( "jQuery(window).trigger('load');Envjs.wait();", "start", context, scope );
+		// QUnit queues its tests on timers; run them all before collecting results
+		session.exec( "Envjs.wait();", "start" );
+	}
+
+	private boolean usesBundles(JavascriptEngine.Session session) {
+		return suiteBundles && ( optimizationLevel >= 0 ) && ( session instanceof RhinoEngine.RhinoSession );
 	}
 
+	/**
+	 * The saved bundle of a headless suite page, or the page's scripts found afresh and saved for next time.
+	 */
+	private SuiteBundle getBundle(JavascriptEngine.Session session, File suite) throws IOException {
+		File file = new File( getBasedir(), "target/javascript-test/bundles/" + getRelativePath( suite ).replace( File.separatorChar, '.' ) + ".properties" );
+		SuiteBundle bundle = SuiteBundle.load( file, suite );
+		if ( bundle != null ) {
+			getLog().debug( "Running " + bundle.getScripts().length + " script(s) from the saved bundle " + file );
+			return bundle;
+		}
+
+		bundle = SuiteBundle.locate( session, suite );
+		bundle.save( file );
+		return bundle;
+	}
+
+	/**
+	 * Results are collected as the tests run, through the QUnit callbacks qunit-runner.js routes to the
+	 * suite's {@link ReportManager}, so there is no need to read them back out of the DOM.
+	 */
 	@Override
-	protected SuiteReport parseSuiteReport(Context context, Scriptable scope) {
-		SuiteReport r = new SuiteReport();
+	protected SuiteReport parseSuiteReport(JavascriptEngine.Session session) {
+		return getReportManager(session).getReport();
+	}
 
-		r.addTest("Some Test", "");
+	/**
+	 * A headless suite depends on itself and the scripts it loaded.
+	 */
+	@Override
+	protected Set<File> locateDependencies(JavascriptEngine.Session session, File suite) throws IOException {
+		if ( ! isHeadless( suite ) )
+			return super.locateDependencies(session, suite);
 
-		return r;
+		Set<File> dependencies = new LinkedHashSet<File>();
+		for ( String script : session.execStringArrayFunction( LOADED_SCRIPTS_FUNCTION, "loaded scripts" ) )
+			if ( script.startsWith("file:") )
+				dependencies.add( new File( URI.create( script ) ).getCanonicalFile() );
+		return dependencies;
+	}
+
+	/**
+	 * QUnit reports the runtime of every test.
+	 */
+	@Override
+	protected boolean hasTestTimings() {
+		return true;
 	}
 
 	@Override
-	protected void generateHumanReadableReport(Context context, Scriptable scope, File suite, String suiteName) throws IOException {
-    File reportFile = new File( getBasedir(), "target/screw-unit/" + suiteName.replace(File.separator,"."));
-    reportFile.getParentFile().mkdirs();
-    FileWriter writer = new FileWriter( reportFile );
-    writer.write("");
-    writer.close();
+	protected String renderHumanReadableReport(JavascriptEngine.Session session, File suite, String suiteName) throws IOException {
+		return "";
 	}
 
 
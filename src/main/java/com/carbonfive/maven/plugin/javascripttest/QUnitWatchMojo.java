@@ -0,0 +1,19 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Runs the QUnit suites, then watches the project and re-runs the suites affected by each change until
+ * interrupted.
+ *
+ * @goal qunit-watch
+ * @requiresDirectInvocation true
+ */
+public class QUnitWatchMojo extends QUnitTestMojo {
+
+	@Override
+	public void execute() throws MojoExecutionException {
+		watch();
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Writes suite reports on a background thread so the next suite can start while the last one's reports are
+ * written.  The queue is bounded: when the writer falls behind, the suite thread that submits a report writes it
+ * itself, so unwritten reports never pile up in memory.
+ */
+public class ReportPipeline
+{
+  private final ThreadPoolExecutor executor;
+  private final List<Future<?>> pending = new ArrayList<Future<?>>();
+
+  public ReportPipeline(int capacity)
+  {
+    executor = new ThreadPoolExecutor( 1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>( capacity ),
+                                       new ThreadFactory()
+                                       {
+                                         public Thread newThread(Runnable runnable)
+                                         {
+                                           Thread thread = new Thread( runnable, "javascript-test-reports" );
+                                           thread.setDaemon( true );
+                                           return thread;
+                                         }
+                                       },
+                                       new ThreadPoolExecutor.CallerRunsPolicy() );
+  }
+
+  public void submit(Callable<Void> task)
+  {
+    Future<?> future = executor.submit( task );
+    synchronized ( pending )
+    {
+      pending.add( future );
+    }
+  }
+
+  /**
+   * Waits for every report submitted so far and throws the first failure among them.
+   */
+  public void drain()
+    throws IOException, InterruptedException
+  {
+    List<Future<?>> futures;
+    synchronized ( pending )
+    {
+      futures = new ArrayList<Future<?>>( pending );
+      pending.clear();
+    }
+
+    IOException failure = null;
+    for ( Future<?> future : futures )
+    {
+      try
+      {
+        future.get();
+      }
+      catch ( ExecutionException e )
+      {
+        if ( failure == null )
+          failure = e.getCause() instanceof IOException ? (IOException) e.getCause() : (IOException) new IOException( e.getCause().toString() ).initCause( e.getCause() );
+      }
+    }
+    if ( failure != null )
+      throw failure;
+  }
+
+  /**
+   * Lets the reports already submitted finish, then stops the writer thread.
+   */
+  public void close()
+    throws InterruptedException
+  {
+    executor.shutdown();
+    executor.awaitTermination( Long.MAX_VALUE, TimeUnit.MILLISECONDS );
+  }
+}
@@ -0,0 +1,75 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Creates the contexts suites run in and remembers how scripts should be compiled for them.  env.js forces its
+ * own context back into interpreted mode while bootstrapping, so the configured optimization level is kept here
+ * rather than read back from the context.  It also feeds instruction counts to the {@link SuiteWatchdog} of the
+ * suite running in a context.
+ */
+public class RhinoContextFactory extends ContextFactory
+{
+  private final int optimizationLevel;
+  private final BytecodeCache bytecodeCache;
+
+  public RhinoContextFactory()
+  {
+    this(-1, null);
+  }
+
+  public RhinoContextFactory(int optimizationLevel, BytecodeCache bytecodeCache)
+  {
+    this.optimizationLevel = optimizationLevel;
+    this.bytecodeCache = bytecodeCache;
+  }
+
+  public int getOptimizationLevel()
+  {
+    return optimizationLevel;
+  }
+
+  public BytecodeCache getBytecodeCache()
+  {
+    return bytecodeCache;
+  }
+
+  @Override
+  protected Context makeContext()
+  {
+    Context context = super.makeContext();
+    context.setOptimizationLevel(optimizationLevel);
+    context.setLanguageVersion(Context.VERSION_1_5);
+    return context;
+  }
+
+  /**
+   * Rhino calls this every {@link SuiteWatchdog#getObserverThreshold()} instructions in contexts a watchdog is
+   * attached to.
+   */
+  @Override
+  protected void observeInstructionCount(Context context, int instructionCount)
+  {
+    SuiteWatchdog watchdog = SuiteWatchdog.get(context);
+    if ( watchdog != null )
+      watchdog.observe(instructionCount);
+  }
+
+  /**
+   * The optimization level scripts should be compiled with for the given context.
+   */
+  public static int getOptimizationLevel(Context context)
+  {
+    if ( context.getFactory() instanceof RhinoContextFactory )
+      return ((RhinoContextFactory) context.getFactory()).getOptimizationLevel();
+    return context.getOptimizationLevel();
+  }
+
+  public static BytecodeCache getBytecodeCache(Context context)
+  {
+    if ( context.getFactory() instanceof RhinoContextFactory )
+      return ((RhinoContextFactory) context.getFactory()).getBytecodeCache();
+    return null;
+  }
+}
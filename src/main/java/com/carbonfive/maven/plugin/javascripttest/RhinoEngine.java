@@ -0,0 +1,196 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Wrapper;
+import org.mozilla.javascript.tools.shell.Global;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Rhino, the default engine and the only one env.js runs on.  Sessions enter a context from the build's
+ * {@link RhinoContextFactory}, and get either a shell global and standard library of their own or, with a shared
+ * scope, a child scope of one sealed base scope with a standard library of its own.
+ */
+public class RhinoEngine implements JavascriptEngine
+{
+  private final RhinoContextFactory contextFactory;
+  private final boolean sharedScope;
+  private Global baseScope;
+
+  public RhinoEngine(RhinoContextFactory contextFactory, boolean sharedScope)
+  {
+    this.contextFactory = contextFactory;
+    this.sharedScope = sharedScope;
+  }
+
+  public String getName()
+  {
+    return "Rhino";
+  }
+
+  public boolean supportsDom()
+  {
+    return true;
+  }
+
+  public RhinoContextFactory getContextFactory()
+  {
+    return contextFactory;
+  }
+
+  public Session openSession()
+  {
+    Context context = contextFactory.enterContext();
+    try
+    {
+      if ( sharedScope )
+        return new RhinoSession( context, createSuiteScope( context, getBaseScope( context ) ) );
+
+      Global global = new Global();
+      global.init( context );
+      return new RhinoSession( context, context.initStandardObjects( global ) );
+    }
+    catch ( RuntimeException e )
+    {
+      Context.exit();
+      throw e;
+    }
+  }
+
+  private synchronized Global getBaseScope(Context context)
+  {
+    if ( baseScope == null )
+      baseScope = createBaseScope( context );
+    return baseScope;
+  }
+
+  /**
+   * Builds the shell global once and seals it so suites can only shadow its properties, never replace them.
+   */
+  private Global createBaseScope(Context context)
+  {
+    Global global = new Global();
+    global.init( context );
+
+    // Force Rhino's lazily loaded constructors in before sealing, otherwise their first use would write to
+    // the sealed global.
+    RhinoHelper.exec( "RegExp; getClass; java; Packages; JavaAdapter;", "base scope", context, global );
+
+    global.sealObject();
+    return global;
+  }
+
+  /**
+   * env.js binds its window, document and timers to the top level scope it is loaded into, so the runtime is
+   * bootstrapped into each suite scope (from compiled scripts cached in {@link RhinoHelper}) rather than into the
+   * shared base.  Each suite scope also gets standard objects of its own: env.js and suites patch builtin
+   * prototypes (e.g. Date.prototype.toJSON), which the base's standard library can't be sealed against, and
+   * which would otherwise carry over into every later suite.
+   */
+  private Scriptable createSuiteScope(Context context, Scriptable baseScope)
+  {
+    ScriptableObject scope = (ScriptableObject) context.newObject( baseScope );
+    scope.setPrototype( baseScope );
+    scope.setParentScope( null );
+    return context.initStandardObjects( scope );
+  }
+
+  /**
+   * A suite's scope and the context it was entered on, for what only works on Rhino: the watchdog, the profiler
+   * and the mojos' own use of {@link RhinoHelper}.
+   */
+  public static class RhinoSession implements Session
+  {
+    private final Context context;
+    private final Scriptable scope;
+
+    public RhinoSession(Context context, Scriptable scope)
+    {
+      this.context = context;
+      this.scope = scope;
+    }
+
+    public Context getContext()
+    {
+      return context;
+    }
+
+    public Scriptable getScope()
+    {
+      return scope;
+    }
+
+    public void put(String name, Object value)
+    {
+      scope.put( name, scope, Context.toObject( value, scope ) );
+    }
+
+    public Object get(String name)
+    {
+      Object value = scope.get( name, scope );
+      if ( value instanceof Wrapper )
+        return ((Wrapper) value).unwrap();
+      return value == Scriptable.NOT_FOUND ? null : value;
+    }
+
+    public boolean has(String name)
+    {
+      return scope.has( name, scope );
+    }
+
+    public void execEnvironment(boolean headless)
+      throws IOException
+    {
+      if ( headless )
+        RhinoHelper.execHeadlessEnvironment( context, scope );
+      else
+        RhinoHelper.execEnvironment( context, scope );
+    }
+
+    public void exec(String script, String name)
+    {
+      RhinoHelper.exec( script, name, context, scope );
+    }
+
+    public void execClasspathScript(String path)
+      throws IOException
+    {
+      RhinoHelper.execClasspathScript( context, scope, path );
+    }
+
+    public void execScriptFile(File file)
+      throws IOException
+    {
+      RhinoHelper.execScriptFile( context, scope, file );
+    }
+
+    public String execStringFunction(String function, String name, Object... args)
+    {
+      return RhinoHelper.execStringFunction( function, name, context, scope, args );
+    }
+
+    public String[] execStringArrayFunction(String function, String name, Object... args)
+    {
+      return RhinoHelper.execStringArrayFunction( function, name, context, scope, args );
+    }
+
+    public String[][] execRecordArrayFunction(String function, String name, String... properties)
+    {
+      return RhinoHelper.execRecordArrayFunction( function, name, context, scope, properties );
+    }
+
+    public void teardown()
+      throws IOException
+    {
+      RhinoHelper.teardown( context, scope );
+    }
+
+    public void close()
+    {
+      Context.exit();
+    }
+  }
+}
@@ -4,33 +4,282 @@ import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class RhinoHelper
 {
+  private static final ScriptCache scriptCache = new ScriptCache();
+  private static final Object FUNCTIONS_KEY = "javascript-test.functions";
+
+  public static ScriptCache getScriptCache()
+  {
+    return scriptCache;
+  }
+
   public static String execStringFunction(String function, String name, Context context, Scriptable scope, Object... args )
   {
-    Function fn = context.compileFunction(scope, "function() {" + function + "}", name, 1, null);
-    return (String) fn.call( context, scope, scope, args );
+    return toJavaString( compileFunction(function, name, context, scope).call( context, scope, scope, args ) );
   }
 
   public static String[] execStringArrayFunction(String function, String name, Context context, Scriptable scope, Object... args )
   {
-    NativeArray results = execNativeArrayFunction(function, name, context, scope, args);
-    if ( results == null )
+    return toStringArray( execNativeArrayFunction(function, name, context, scope, args) );
+  }
+
+  public static NativeArray execNativeArrayFunction(String function, String name, Context context, Scriptable scope, Object... args)
+  {
+    return (NativeArray) compileFunction(function, name, context, scope).call(context, scope, scope, args);
+  }
+
+  /**
+   * The objects in the array the function returns, one row of the given properties as strings per object.
+   */
+  public static String[][] execRecordArrayFunction(String function, String name, Context context, Scriptable scope, String... properties)
+  {
+    List<String[]> records = execRecordFunction(function, name, context, scope, new RecordMapper<String[]>()
+    {
+      public String[] map(Record record)
+      {
+        String[] values = new String[ record.size() ];
+        for ( int j=0; j < values.length; j++ )
+          values[j] = record.getString(j);
+        return values;
+      }
+    }, properties);
+    return records == null ? null : records.toArray( new String[records.size()][] );
+  }
+
+  /**
+   * The objects in the array the function returns, each mapped to a Java object from the given properties in a
+   * single pass over the array, or null if the function returns nothing.
+   */
+  public static <T> List<T> execRecordFunction(String function, String name, Context context, Scriptable scope, RecordMapper<T> mapper, String... properties)
+  {
+    return toRecords( execNativeArrayFunction(function, name, context, scope), mapper, properties );
+  }
+
+  /**
+   * Compiles a helper function once per scope, since a function is bound to the scope it is created in.  Suites
+   * call the same few helpers, so the source itself only goes through the script cache once per build.
+   */
+  @SuppressWarnings("unchecked")
+  public static Function compileFunction(String function, String name, Context context, Scriptable scope)
+  {
+    Map<String, Function> functions = null;
+    if ( scope instanceof ScriptableObject )
+    {
+      ScriptableObject object = (ScriptableObject) scope;
+      functions = (Map<String, Function>) object.getAssociatedValue(FUNCTIONS_KEY);
+      if ( functions == null )
+        functions = (Map<String, Function>) object.associateValue(FUNCTIONS_KEY, new HashMap<String, Function>());
+
+      Function fn = functions.get(function);
+      if ( fn != null )
+        return fn;
+    }
+
+    String source = "(function() {" + function + "})";
+    Function fn;
+    try
+    {
+      fn = (Function) scriptCache.compile(context, source, name).exec(context, scope);
+    }
+    catch ( IOException e )
+    {
+      // the bytecode cache couldn't be read or written; the function is small enough to compile in place
+      fn = (Function) context.compileString(source, name, 1, null).exec(context, scope);
+    }
+
+    if ( functions != null )
+      functions.put(function, fn);
+    return fn;
+  }
+
+  /**
+   * The elements of a JavaScript array as strings, null for null or undefined, or null if it isn't an array.
+   */
+  public static String[] toStringArray(Object array)
+  {
+    if ( ! ( array instanceof NativeArray ) )
       return null;
 
-    String[] strArray = new String[ (int) results.getLength() ];
-    for ( int i=0; i < strArray.length; i++ )
-        strArray[i] = (String) results.get(i,results);
-    return strArray;
+    NativeArray results = (NativeArray) array;
+    String[] strings = new String[ (int) results.getLength() ];
+    for ( int i=0; i < strings.length; i++ )
+      strings[i] = toJavaString( results.get(i, results) );
+    return strings;
   }
 
-  public static NativeArray execNativeArrayFunction(String function, String name, Context context, Scriptable scope, Object... args)
+  /**
+   * The elements of a JavaScript array as numbers, NaN for anything that isn't one, or null if it isn't an array.
+   */
+  public static double[] toDoubleArray(Object array)
+  {
+    if ( ! ( array instanceof NativeArray ) )
+      return null;
+
+    NativeArray results = (NativeArray) array;
+    double[] numbers = new double[ (int) results.getLength() ];
+    for ( int i=0; i < numbers.length; i++ )
+      numbers[i] = toNumber( results.get(i, results) );
+    return numbers;
+  }
+
+  /**
+   * The elements of a JavaScript array as whole numbers, 0 for anything that isn't one, or null if it isn't an
+   * array.
+   */
+  public static long[] toLongArray(Object array)
+  {
+    if ( ! ( array instanceof NativeArray ) )
+      return null;
+
+    NativeArray results = (NativeArray) array;
+    long[] numbers = new long[ (int) results.getLength() ];
+    for ( int i=0; i < numbers.length; i++ )
+      numbers[i] = toLong( results.get(i, results) );
+    return numbers;
+  }
+
+  /**
+   * The elements of a JavaScript array by JavaScript truthiness, or null if it isn't an array.
+   */
+  public static boolean[] toBooleanArray(Object array)
+  {
+    if ( ! ( array instanceof NativeArray ) )
+      return null;
+
+    NativeArray results = (NativeArray) array;
+    boolean[] booleans = new boolean[ (int) results.getLength() ];
+    for ( int i=0; i < booleans.length; i++ )
+      booleans[i] = toBoolean( results.get(i, results) );
+    return booleans;
+  }
+
+  /**
+   * The objects in a JavaScript array, each mapped to a Java object from the given properties, or null if it
+   * isn't an array.  Elements that aren't objects map as if none of the properties were set.
+   */
+  public static <T> List<T> toRecords(Object array, RecordMapper<T> mapper, String... properties)
+  {
+    if ( ! ( array instanceof NativeArray ) )
+      return null;
+
+    NativeArray results = (NativeArray) array;
+    int length = (int) results.getLength();
+    List<T> records = new ArrayList<T>( length );
+    Record record = new Record( properties );
+    for ( int i=0; i < length; i++ )
+    {
+      Object element = results.get(i, results);
+      for ( int j=0; j < properties.length; j++ )
+      {
+        Object value = null;
+        if ( element instanceof Scriptable )
+          value = ((Scriptable) element).get(properties[j], (Scriptable) element);
+        record.values[j] = isSet(value) ? value : null;
+      }
+      records.add( mapper.map(record) );
+    }
+    return records;
+  }
+
+  private static boolean isSet(Object value)
   {
-    Function fn = context.compileFunction(scope, "function() {" + function + "}", name, 1, null);
-    return (NativeArray) fn.call(context, scope, scope, args);
+    return ( value != null ) && ( value != Scriptable.NOT_FOUND ) && ! ( value instanceof Undefined );
+  }
+
+  private static String toJavaString(Object value)
+  {
+    return isSet(value) ? Context.toString(value) : null;
+  }
+
+  private static double toNumber(Object value)
+  {
+    return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+  }
+
+  private static long toLong(Object value)
+  {
+    double number = toNumber(value);
+    return Double.isNaN(number) ? 0 : (long) number;
+  }
+
+  private static boolean toBoolean(Object value)
+  {
+    return isSet(value) && Context.toBoolean(value);
+  }
+
+  /**
+   * Turns one object of a result array into a Java object.
+   */
+  public interface RecordMapper<T>
+  {
+    /**
+     * The record is reused for the next object, so only its values may be kept.
+     */
+    T map(Record record);
+  }
+
+  /**
+   * The properties of one object of a result array, by their position in the list of properties asked for.
+   */
+  public static class Record
+  {
+    private final String[] properties;
+    private final Object[] values;
+
+    Record(String[] properties)
+    {
+      this.properties = properties;
+      this.values = new Object[ properties.length ];
+    }
+
+    public int size()
+    {
+      return values.length;
+    }
+
+    public String getProperty(int index)
+    {
+      return properties[index];
+    }
+
+    /**
+     * Whether the property is set to anything but null or undefined.
+     */
+    public boolean isSet(int index)
+    {
+      return values[index] != null;
+    }
+
+    public String getString(int index)
+    {
+      return toJavaString( values[index] );
+    }
+
+    public double getDouble(int index)
+    {
+      return toNumber( values[index] );
+    }
+
+    public long getLong(int index)
+    {
+      return toLong( values[index] );
+    }
+
+    public boolean getBoolean(int index)
+    {
+      return toBoolean( values[index] );
+    }
   }
 
   public static void exec(String script, String name, Context context, Scriptable scope)
@@ -38,20 +287,87 @@ public class RhinoHelper
     context.compileString(script, name, 1, null).exec(context,scope);
   }
 
+  /**
+   * Loads env.js into a suite scope, with its external scripts routed through the script cache.
+   */
+  public static void execEnvironment(Context rhinoContext, Scriptable scope)
+    throws IOException
+  {
+    execClasspathScript(rhinoContext, scope, "env.rhino.js");
+    scope.put("$scripts", scope, Context.toObject(scriptCache, scope));
+    execClasspathScript(rhinoContext, scope, "script-cache.js");
+  }
+
+  /**
+   * Loads headless.js, the stand-in for env.js for suites that need no DOM, into a suite scope.
+   */
+  public static void execHeadlessEnvironment(Context rhinoContext, Scriptable scope)
+    throws IOException
+  {
+    scope.put("$scripts", scope, Context.toObject(scriptCache, scope));
+    execClasspathScript(rhinoContext, scope, "headless.js");
+  }
+
+  /**
+   * Lets go of a finished suite: cancels its timers, closes its window and clears its scope, so that whatever may
+   * still refer to the scope, e.g. a thread started by an asynchronous XMLHttpRequest, no longer keeps the suite's
+   * DOM and objects alive.  Top level vars can't be deleted and are set to undefined instead.
+   */
+  public static void teardown(Context rhinoContext, Scriptable scope)
+    throws IOException
+  {
+    try
+    {
+      execClasspathScript(rhinoContext, scope, "teardown.js");
+    }
+    finally
+    {
+      Object[] ids = scope instanceof ScriptableObject ? ((ScriptableObject) scope).getAllIds() : scope.getIds();
+      for ( Object id : ids )
+      {
+        if ( id instanceof String )
+        {
+          String name = (String) id;
+          scope.delete(name);
+          if ( scope.has(name, scope) )
+            scope.put(name, scope, Undefined.instance);
+        }
+        else if ( id instanceof Integer )
+        {
+          scope.delete((Integer) id);
+        }
+      }
+    }
+  }
+
   public static void execClasspathScript(Context rhinoContext, Scriptable scope, String path)
     throws IOException
   {
-    Reader in = new InputStreamReader(rhinoContext.getClass().getClassLoader().getResourceAsStream(path));
-    compileAndExec(in, "classpath:" + path, rhinoContext, scope);
-    in.close();
+    compileClasspathScript(rhinoContext, path).exec(rhinoContext, scope);
+  }
+
+  public static Script compileClasspathScript(Context rhinoContext, String path)
+    throws IOException
+  {
+    InputStream resource = rhinoContext.getClass().getClassLoader().getResourceAsStream(path);
+    if ( resource == null )
+      throw new FileNotFoundException("classpath:" + path);
+
+    Reader in = new InputStreamReader(resource, "UTF-8");
+    try
+    {
+      return scriptCache.compile(rhinoContext, ScriptCache.read(in), "classpath:" + path);
+    }
+    finally
+    {
+      in.close();
+    }
   }
 
   public static void execScriptFile(Context rhinoContext, Scriptable scope, File file)
     throws IOException
   {
-    Reader in = new FileReader(file);
-    compileAndExec(in, file.getName(), rhinoContext, scope);
-    in.close();
+    scriptCache.compile(rhinoContext, file).exec(rhinoContext, scope);
   }
 
   public static void compileAndExec(Reader in, String name, Context rhinoContext, Scriptable scope)
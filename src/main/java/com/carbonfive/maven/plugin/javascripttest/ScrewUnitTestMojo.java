@@ -19,17 +19,14 @@ package com.carbonfive.maven.plugin.javascripttest;
 
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Set;
-import org.mozilla.javascript.Context;
-import org.mozilla.javascript.NativeArray;
-import org.mozilla.javascript.NativeObject;
-import org.mozilla.javascript.Scriptable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @component
@@ -40,12 +37,17 @@ public class ScrewUnitTestMojo extends AbstractRhinoTestMojo {
 
   private static final String LOCATE_SCRIPTS_FUNCTION = "return jtmp_locate_scripts();";
   private static final String LOCATE_CSS_FUNCTION = "return jtmp_locate_css();";
+  private static final ConcurrentMap<String, CachedCss> CSS_CACHE = new ConcurrentHashMap<String, CachedCss>();
   private static final String TESTS_RUN_FUNCTION = "return jtmp_failure_messages()";
 
 	@Override
-	protected void runSuite(Context context, Scriptable scope, File suite) throws Exception {
-        RhinoHelper.execClasspathScript(context, scope, "javascript-test-maven-plugin.js");
-		RhinoHelper.execClasspathScript(context, scope, "screwunit-runner.js");
+	protected void loadRunner(JavascriptEngine.Session session, File suite) throws IOException {
+        session.execClasspathScript("javascript-test-maven-plugin.js");
+		session.execClasspathScript("screwunit-runner.js");
+	}
+
+	@Override
+	protected void runSuite(JavascriptEngine.Session session, File suite) throws Exception {
 
 		/*
 		RhinoHelper.execClasspathScript(context, scope, "screwunit/screw.builder.js");
@@ -56,16 +58,16 @@ public class ScrewUnitTestMojo extends AbstractRhinoTestMojo {
 
 		String code = "window.location = \"" + suite.getAbsolutePath() + "\";";
 
-		RhinoHelper.exec( code, "suite.html", context, scope );
+		session.exec( code, "suite.html" );
 
-        //importScripts(context, scope, suite);
+        //importScripts(session, suite);
 
         // Trigger test execution
-        RhinoHelper.exec( "jQuery(window).trigger('load');Envjs.wait();", "start", context, scope );
+        session.exec( "jQuery(window).trigger('load');Envjs.wait();", "start" );
 	}
 
 	
-	  private void importScripts(Context context, Scriptable scope, File suite)
+	  private void importScripts(JavascriptEngine.Session session, File suite)
     throws IOException
   {
     Set<String> executed = new HashSet<String>();
@@ -73,7 +75,7 @@ public class ScrewUnitTestMojo extends AbstractRhinoTestMojo {
 
 
 
-    toExecute.addAll(Arrays.asList(RhinoHelper.execStringArrayFunction(LOCATE_SCRIPTS_FUNCTION, "locate scripts", context, scope)));
+    toExecute.addAll(Arrays.asList(session.execStringArrayFunction(LOCATE_SCRIPTS_FUNCTION, "locate scripts")));
 
     while ( toExecute.size() > executed.size() )
     {
@@ -82,16 +84,16 @@ public class ScrewUnitTestMojo extends AbstractRhinoTestMojo {
         if ( ! executed.contains(script) )
         {
           if ( script.startsWith("file:") )
-            RhinoHelper.execScriptFile(context, scope, new File(suite.getParentFile(), script.substring("file:".length())) );
+            session.execScriptFile( new File(suite.getParentFile(), script.substring("file:".length())) );
           else
-            context.compileString(script, "inline script", 1, null ).exec(context,scope);
+            session.exec( script, "inline script" );
 
           executed.add( script );
 
           if ( reimportScripts )
           {
             toExecute.clear();
-            toExecute.addAll(Arrays.asList(RhinoHelper.execStringArrayFunction(LOCATE_SCRIPTS_FUNCTION, "locate scripts", context, scope)));
+            toExecute.addAll(Arrays.asList(session.execStringArrayFunction(LOCATE_SCRIPTS_FUNCTION, "locate scripts")));
             break;
           }
         }
@@ -100,48 +102,85 @@ public class ScrewUnitTestMojo extends AbstractRhinoTestMojo {
   }
 
   @Override
-  protected void generateHumanReadableReport(Context context, Scriptable scope, File suite, String suiteName)
+  protected String renderHumanReadableReport(JavascriptEngine.Session session, File suite, String suiteName)
     throws IOException
   {
-    File reportFile = new File( getBasedir(), "target/screw-unit/" + suiteName.replace(File.separator,"."));
-    reportFile.getParentFile().mkdirs();
-    FileWriter writer = new FileWriter( reportFile );
-    writer.write("<html><head><title>Screw-Unit test report for " + suiteName +
+    // Screw.Unit uses the focus event to set a 'focused' class on describe divs before running them,
+    // but env.js doesn't support focus events on non-input elements.  Focus them all manually here so our report
+    // looks better.
+    session.exec("jQuery('body > .describe > .describes > .describe').addClass('focused');","describe focus fix" );
+
+    return "<html><head><title>Screw-Unit test report for " + suiteName +
       "</title><style type=\"text/css\">" +
-      inlineCss(context, scope, suite) +
+      inlineCss(session, suite) +
       "</style></head><body>"
-      + RhinoHelper.execStringFunction("return jQuery('body').html()","jQuery('body').html()", context, scope) +
-      "</body></html>");
-    writer.close();
+      + session.execStringFunction("return jQuery('body').html()","jQuery('body').html()") +
+      "</body></html>";
   }
 
   @Override
-  protected SuiteReport parseSuiteReport(Context context, Scriptable scope)
+  protected SuiteReport parseSuiteReport(JavascriptEngine.Session session)
   {
-    NativeArray tests = RhinoHelper.execNativeArrayFunction(TESTS_RUN_FUNCTION, "tests run", context, scope);
-    SuiteReport report = new SuiteReport();
-    for ( int i=0; i < tests.getLength(); i++ )
-    {
-      NativeObject test = (NativeObject) tests.get(i, tests);
-      report.addTest( (String) test.get("test",test), (String) test.get("error",test) );
-    }
+    String[][] tests = session.execRecordArrayFunction(TESTS_RUN_FUNCTION, "tests run", "test", "error");
+    SuiteReport report = getReportManager(session).getReport();
+
+    // Screw.Unit doesn't time its examples; share the suite time out evenly between them
+    long timeNanos = tests.length == 0 ? 0 : report.getExecutionTime() * 1000000 / tests.length;
+    for ( String[] test : tests )
+      report.addTest( null, test[0], test[1], 0, timeNanos, null );
     return report;
   }
 
-    private String inlineCss(Context context, Scriptable scope, File suite)
+  private String inlineCss(JavascriptEngine.Session session, File suite)
+    throws IOException
+  {
+    StringBuilder buf = new StringBuilder();
+    for ( String source : session.execStringArrayFunction( LOCATE_CSS_FUNCTION, "locate css" ) )
+      buf.append( readCss( new File(suite.getParentFile(), source) ) ).append( "\n" );
+    return buf.toString();
+  }
+
+  /**
+   * Suites usually share their stylesheets, so each is read once per build and again only when it changes.
+   */
+  private static String readCss(File file)
     throws IOException
   {
+    File canonical = file.getCanonicalFile();
+    CachedCss cached = CSS_CACHE.get( canonical.getPath() );
+    if (( cached != null ) && ( cached.lastModified == canonical.lastModified() ) && ( cached.length == canonical.length() ))
+      return cached.content;
+
+    long lastModified = canonical.lastModified();
+    long length = canonical.length();
     StringBuilder buf = new StringBuilder();
     char[] cb = new char[4096];
-    for ( String source : RhinoHelper.execStringArrayFunction( LOCATE_CSS_FUNCTION, "locate css", context, scope ) )
+    Reader in = new FileReader( canonical );
+    try
     {
-      Reader in = new FileReader( new File(suite.getParentFile(), source) );
       for ( int c = in.read(cb,0,4096); c >= 0; c = in.read(cb,0,4096) )
         buf.append( cb, 0, c );
+    }
+    finally
+    {
       in.close();
-      buf.append( "\n" );
     }
+    CSS_CACHE.put( canonical.getPath(), new CachedCss( lastModified, length, buf.toString() ) );
     return buf.toString();
   }
 
+  private static class CachedCss
+  {
+    private final long lastModified;
+    private final long length;
+    private final String content;
+
+    CachedCss(long lastModified, long length, String content)
+    {
+      this.lastModified = lastModified;
+      this.length = length;
+      this.content = content;
+    }
+  }
+
 }
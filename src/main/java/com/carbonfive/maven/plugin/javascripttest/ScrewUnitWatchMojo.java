@@ -0,0 +1,20 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Runs the Screw.Unit suites, then watches the project and re-runs the suites affected by each change until
+ * interrupted.
+ *
+ * @goal watch
+ * @requiresDirectInvocation true
+ */
+public class ScrewUnitWatchMojo extends ScrewUnitTestMojo {
+
+  @Override
+  public void execute() throws MojoExecutionException
+  {
+    watch();
+  }
+
+}
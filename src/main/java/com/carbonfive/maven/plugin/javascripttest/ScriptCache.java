@@ -0,0 +1,278 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Parser;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds compiled scripts keyed by source name and content hash so that the same source is only lexed, parsed
+ * and compiled once per build, no matter how many suites execute it.  Script files are also remembered by path,
+ * size and modification time, so an unchanged file is not even read again.
+ */
+public class ScriptCache
+{
+  private final ConcurrentMap<String, CachedScript> scripts = new ConcurrentHashMap<String, CachedScript>();
+  private final ConcurrentMap<String, CachedFile> files = new ConcurrentHashMap<String, CachedFile>();
+
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private final AtomicInteger interpretedFallbacks = new AtomicInteger();
+  private final AtomicLong compileMillis = new AtomicLong();
+  private final AtomicLong compileMillisSaved = new AtomicLong();
+
+  public Script compile(Context context, String source, String name)
+    throws IOException
+  {
+    return lookup(context, source, name).script;
+  }
+
+  public Script compile(Context context, File file)
+    throws IOException
+  {
+    File canonical = file.getCanonicalFile();
+    String key = canonical.getPath() + "#" + RhinoContextFactory.getOptimizationLevel(context) + "#" + ( context.getInstructionObserverThreshold() > 0 );
+    long lastModified = canonical.lastModified();
+    long length = canonical.length();
+
+    CachedFile cached = files.get(key);
+    if (( cached != null ) && ( cached.lastModified == lastModified ) && ( cached.length == length ))
+    {
+      hits.incrementAndGet();
+      compileMillisSaved.addAndGet(cached.script.compileMillis);
+      return cached.script.script;
+    }
+
+    CachedScript script = lookup(context, new String(read(canonical), "UTF-8"), canonical.toURI().toString());
+    files.put(key, new CachedFile(script, lastModified, length));
+    return script.script;
+  }
+
+  /**
+   * Called by env.js in place of evaluating an external script itself, see script-cache.js.
+   */
+  public void exec(Scriptable scope, String source, String name)
+    throws IOException
+  {
+    Context context = Context.getCurrentContext();
+    compile(context, source, name).exec(context, scope);
+  }
+
+  private CachedScript lookup(Context context, String source, String name)
+    throws IOException
+  {
+    int optimizationLevel = RhinoContextFactory.getOptimizationLevel(context);
+    boolean observed = context.getInstructionObserverThreshold() > 0;
+    String key = name + "#" + optimizationLevel + "#" + observed + "#" + contentHash(source);
+
+    CachedScript cached = scripts.get(key);
+    if ( cached != null )
+    {
+      hits.incrementAndGet();
+      compileMillisSaved.addAndGet(cached.compileMillis);
+      return cached;
+    }
+
+    long startTime = System.currentTimeMillis();
+    Script script = compileScript(context, source, name, optimizationLevel);
+    long elapsed = System.currentTimeMillis() - startTime;
+
+    misses.incrementAndGet();
+    compileMillis.addAndGet(elapsed);
+    cached = new CachedScript(script, elapsed);
+    CachedScript raced = scripts.putIfAbsent(key, cached);
+    return raced == null ? cached : raced;
+  }
+
+  private Script compileScript(Context context, String source, String name, int optimizationLevel)
+    throws IOException
+  {
+    if ( optimizationLevel >= 0 )
+    {
+      try
+      {
+        BytecodeCache bytecodeCache = RhinoContextFactory.getBytecodeCache(context);
+        if ( bytecodeCache != null )
+          return bytecodeCache.compile(context, source, name, optimizationLevel);
+        return compileString(context, source, name, optimizationLevel);
+      }
+      catch ( EvaluatorException e )
+      {
+        // Typically a function too large for the JVM's 64KB method limit; the interpreter has no such limit.  Syntax
+        // errors are EvaluatorExceptions as well, but there is no point in compiling those again.
+        if ( ! parses(context, source, name) )
+          throw e;
+        interpretedFallbacks.incrementAndGet();
+      }
+    }
+    return compileString(context, source, name, -1);
+  }
+
+  /**
+   * Whether the source is free of syntax errors, i.e. whether it only failed to compile in code generation.
+   */
+  private static boolean parses(Context context, String source, String name)
+  {
+    CompilerEnvirons environment = new CompilerEnvirons();
+    environment.initFromContext(context);
+    try
+    {
+      new Parser(environment, environment.getErrorReporter()).parse(source, name, 1);
+      return true;
+    }
+    catch ( EvaluatorException e )
+    {
+      return false;
+    }
+  }
+
+  private Script compileString(Context context, String source, String name, int optimizationLevel)
+  {
+    int previousLevel = context.getOptimizationLevel();
+    context.setOptimizationLevel(optimizationLevel);
+    try
+    {
+      return context.compileString(source, name, 1, null);
+    }
+    finally
+    {
+      context.setOptimizationLevel(previousLevel);
+    }
+  }
+
+  public int getHits()
+  {
+    return hits.get();
+  }
+
+  public int getMisses()
+  {
+    return misses.get();
+  }
+
+  public int getInterpretedFallbacks()
+  {
+    return interpretedFallbacks.get();
+  }
+
+  public long getCompileMillis()
+  {
+    return compileMillis.get();
+  }
+
+  public long getCompileMillisSaved()
+  {
+    return compileMillisSaved.get();
+  }
+
+  public int size()
+  {
+    return scripts.size();
+  }
+
+  public void resetStatistics()
+  {
+    hits.set(0);
+    misses.set(0);
+    interpretedFallbacks.set(0);
+    compileMillis.set(0);
+    compileMillisSaved.set(0);
+  }
+
+  public void clear()
+  {
+    scripts.clear();
+    files.clear();
+    resetStatistics();
+  }
+
+  public static String contentHash(String source)
+  {
+    try
+    {
+      return contentHash(source.getBytes("UTF-8"));
+    }
+    catch ( UnsupportedEncodingException e )
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static String contentHash(byte[] content)
+  {
+    try
+    {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+      StringBuilder buf = new StringBuilder(digest.length * 2);
+      for ( byte b : digest )
+        buf.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      return buf.toString();
+    }
+    catch ( NoSuchAlgorithmException e )
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  public static String read(Reader in)
+    throws IOException
+  {
+    StringBuilder buf = new StringBuilder();
+    char[] cb = new char[4096];
+    for ( int c = in.read(cb,0,4096); c >= 0; c = in.read(cb,0,4096) )
+      buf.append( cb, 0, c );
+    return buf.toString();
+  }
+
+  public static byte[] read(File file)
+    throws IOException
+  {
+    byte[] data = new byte[(int) file.length()];
+    DataInputStream in = new DataInputStream(new FileInputStream(file));
+    try
+    {
+      in.readFully(data);
+    }
+    finally
+    {
+      in.close();
+    }
+    return data;
+  }
+
+  private static class CachedScript
+  {
+    private final Script script;
+    private final long compileMillis;
+
+    private CachedScript(Script script, long compileMillis)
+    {
+      this.script = script;
+      this.compileMillis = compileMillis;
+    }
+  }
+
+  private static class CachedFile
+  {
+    private final CachedScript script;
+    private final long lastModified;
+    private final long length;
+
+    private CachedFile(CachedScript script, long lastModified, long length)
+    {
+      this.script = script;
+      this.lastModified = lastModified;
+      this.length = length;
+    }
+  }
+}
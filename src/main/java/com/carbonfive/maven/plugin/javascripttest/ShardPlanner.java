@@ -0,0 +1,136 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.util.*;
+
+/**
+ * Splits suites between the shards of a build that runs on several machines.  Every shard computes the whole plan
+ * from the same inputs and keeps its own part, so the shards agree without talking to each other as long as they
+ * see the same suites and the same timings.
+ * <p>
+ * With timings from earlier runs the suites are packed longest first, each onto the shard with the least work so
+ * far; suites without a timing are assumed to take as long as the average suite that has one.  Without any timings
+ * suites are spread by a hash of their name.
+ */
+public class ShardPlanner
+{
+  public static final String DURATION = "duration";
+  public static final String HASH = "hash";
+
+  private final int shardCount;
+  private final SuiteTimings timings;
+
+  public ShardPlanner(int shardCount, SuiteTimings timings)
+  {
+    this.shardCount = shardCount;
+    this.timings = timings;
+  }
+
+  public String getStrategy()
+  {
+    return ( timings == null ) || timings.isEmpty() ? HASH : DURATION;
+  }
+
+  /**
+   * The suites of each shard, in the order they were given.
+   */
+  public List<List<String>> plan(String[] suites)
+  {
+    List<List<String>> shards = new ArrayList<List<String>>();
+    for ( int i=0; i < shardCount; i++ )
+      shards.add(new ArrayList<String>());
+
+    final Map<String, Integer> order = new HashMap<String, Integer>();
+    for ( int i=0; i < suites.length; i++ )
+      order.put(suites[i], i);
+
+    if ( HASH.equals(getStrategy()) )
+    {
+      for ( String suite : suites )
+        shards.get(hash(suite) % shardCount).add(suite);
+      return shards;
+    }
+
+    final Map<String, Long> durations = estimateDurations(suites);
+    List<String> longestFirst = new ArrayList<String>(Arrays.asList(suites));
+    Collections.sort(longestFirst, new Comparator<String>()
+    {
+      public int compare(String a, String b)
+      {
+        long difference = durations.get(b) - durations.get(a);
+        if ( difference != 0 )
+          return difference > 0 ? 1 : -1;
+        return a.compareTo(b);
+      }
+    });
+
+    long[] loads = new long[shardCount];
+    for ( String suite : longestFirst )
+    {
+      int lightest = 0;
+      for ( int i=1; i < shardCount; i++ )
+        if ( loads[i] < loads[lightest] )
+          lightest = i;
+      loads[lightest] += durations.get(suite);
+      shards.get(lightest).add(suite);
+    }
+
+    for ( List<String> shard : shards )
+    {
+      Collections.sort(shard, new Comparator<String>()
+      {
+        public int compare(String a, String b)
+        {
+          return order.get(a) - order.get(b);
+        }
+      });
+    }
+    return shards;
+  }
+
+  /**
+   * A hash of everything the plan depends on: the shard count, the suites and their typical durations.  Shards that
+   * report different hashes planned from different inputs and may have run a suite twice or not at all.
+   */
+  public String getInputHash(String[] suites)
+  {
+    StringBuilder inputs = new StringBuilder().append(shardCount).append('\n').append(getStrategy()).append('\n');
+    for ( String suite : suites )
+    {
+      Long duration = timings == null ? null : timings.getTypicalDuration(suite);
+      inputs.append(suite.replace('\\', '/')).append('\t').append(duration == null ? "-" : duration.toString()).append('\n');
+    }
+    return ScriptCache.contentHash(inputs.toString());
+  }
+
+  private Map<String, Long> estimateDurations(String[] suites)
+  {
+    Map<String, Long> durations = new HashMap<String, Long>();
+    long known = 0;
+    int knownCount = 0;
+    for ( String suite : suites )
+    {
+      Long duration = timings.getTypicalDuration(suite);
+      if ( duration != null )
+      {
+        durations.put(suite, duration);
+        known += duration;
+        knownCount++;
+      }
+    }
+
+    long average = knownCount == 0 ? 1 : Math.max(known / knownCount, 1);
+    for ( String suite : suites )
+      if ( ! durations.containsKey(suite) )
+        durations.put(suite, average);
+    return durations;
+  }
+
+  /**
+   * A hash of the suite name that is the same on every machine; paths are compared with '/' separators.
+   */
+  private static int hash(String suite)
+  {
+    String hash = ScriptCache.contentHash(suite.replace('\\', '/'));
+    return Integer.parseInt(hash.substring(0, 7), 16);
+  }
+}
@@ -0,0 +1,194 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.*;
+import java.net.URI;
+import java.util.Properties;
+
+/**
+ * The scripts a headless suite page runs, in document order, as headless.js finds them: external scripts by their
+ * src, resolved against the page when they run, and inline scripts with the names headless.js gives them, so stack
+ * traces and the script and bytecode caches see the same names either way.  Saved bundles are keyed by a hash of
+ * the page and every local script it runs, and are only used while none of them changed.
+ */
+public class SuiteBundle
+{
+  private static final String VERSION = "1";
+  private static final String LOCATE_SCRIPTS_FUNCTION = "return Envjs.locateScripts(String($suiteUrl));";
+
+  private final String key;
+  private final Script[] scripts;
+
+  SuiteBundle(String key, Script[] scripts)
+  {
+    this.key = key;
+    this.scripts = scripts;
+  }
+
+  /**
+   * Finds the page's scripts in a session with headless.js loaded.
+   */
+  public static SuiteBundle locate(JavascriptEngine.Session session, File suite)
+    throws IOException
+  {
+    // passed as a global, so the function is the same for every suite and only compiled once
+    session.put( "$suiteUrl", suite.getCanonicalFile().toURI().toString() );
+    String[][] records = session.execRecordArrayFunction( LOCATE_SCRIPTS_FUNCTION, "locate scripts", "src", "name", "source" );
+
+    Script[] scripts = new Script[ records.length ];
+    for ( int i=0; i < records.length; i++ )
+      scripts[i] = new Script( records[i][0], records[i][1], records[i][2] );
+    return new SuiteBundle( computeKey( suite, scripts ), scripts );
+  }
+
+  /**
+   * The bundle saved for the page, or null if there is none or the page or any of its scripts changed since.
+   */
+  public static SuiteBundle load(File file, File suite)
+    throws IOException
+  {
+    if ( ! file.isFile() )
+      return null;
+
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream( file );
+    try
+    {
+      properties.load( in );
+    }
+    finally
+    {
+      in.close();
+    }
+
+    int count = Integer.parseInt( properties.getProperty( "scripts", "0" ) );
+    Script[] scripts = new Script[ count ];
+    for ( int i=0; i < count; i++ )
+      scripts[i] = new Script( properties.getProperty( i + ".src" ), properties.getProperty( i + ".name" ), properties.getProperty( i + ".source" ) );
+
+    String key = computeKey( suite, scripts );
+    if (( key == null ) || ! key.equals( properties.getProperty( "key" ) ))
+      return null;
+    return new SuiteBundle( key, scripts );
+  }
+
+  /**
+   * Saves the bundle, unless it runs scripts that aren't local files and so can't be checked for changes.
+   */
+  public void save(File file)
+    throws IOException
+  {
+    if ( key == null )
+      return;
+
+    Properties properties = new Properties();
+    properties.setProperty( "key", key );
+    properties.setProperty( "scripts", String.valueOf( scripts.length ) );
+    for ( int i=0; i < scripts.length; i++ )
+    {
+      if ( scripts[i].src != null )
+        properties.setProperty( i + ".src", scripts[i].src );
+      if ( scripts[i].name != null )
+        properties.setProperty( i + ".name", scripts[i].name );
+      if ( scripts[i].source != null )
+        properties.setProperty( i + ".source", scripts[i].source );
+    }
+
+    // split suites locate their bundle once per part, at the same time; the last one wins
+    file.getParentFile().mkdirs();
+    File temp = File.createTempFile( file.getName(), ".tmp", file.getParentFile() );
+    OutputStream out = new FileOutputStream( temp );
+    try
+    {
+      properties.store( out, "javascript-test suite bundle" );
+    }
+    finally
+    {
+      out.close();
+    }
+    if ( ! temp.renameTo( file ) )
+    {
+      file.delete();
+      if ( ! temp.renameTo( file ) )
+        temp.delete();
+    }
+  }
+
+  public Script[] getScripts()
+  {
+    return scripts;
+  }
+
+  /**
+   * A hash of the page and each local script, in order, or null if a script isn't a local file.
+   */
+  static String computeKey(File suite, Script[] scripts)
+    throws IOException
+  {
+    // inline scripts are named after the page's URL
+    StringBuilder inputs = new StringBuilder( VERSION ).append( '\n' );
+    inputs.append( suite.getCanonicalFile().toURI() ).append( ' ' ).append( IncrementalIndex.hash( suite ) ).append( '\n' );
+    for ( Script script : scripts )
+    {
+      if ( script.src == null )
+        continue;
+
+      File file = resolve( suite, script.src );
+      if (( file == null ) || ! file.isFile() )
+        return null;
+      inputs.append( script.src ).append( ' ' ).append( IncrementalIndex.hash( file ) ).append( '\n' );
+    }
+    return ScriptCache.contentHash( inputs.toString() );
+  }
+
+  /**
+   * Resolves a src as headless.js does, or returns null if it isn't a local file.
+   */
+  private static File resolve(File suite, String src)
+  {
+    try
+    {
+      URI uri;
+      if ( src.matches( "(?i)[a-z][a-z0-9+.\\-]*:.*" ) )
+        uri = new URI( src );
+      else
+        uri = suite.getCanonicalFile().toURI().resolve( new URI( null, null, src, null ) );
+      return "file".equals( uri.getScheme() ) ? new File( uri ) : null;
+    }
+    catch ( Exception e )
+    {
+      return null;
+    }
+  }
+
+  /**
+   * An external script, by its src, or an inline script, by its name and source.
+   */
+  public static class Script
+  {
+    private final String src;
+    private final String name;
+    private final String source;
+
+    public Script(String src, String name, String source)
+    {
+      this.src = src;
+      this.name = name;
+      this.source = source;
+    }
+
+    public String getSrc()
+    {
+      return src;
+    }
+
+    public String getName()
+    {
+      return name;
+    }
+
+    public String getSource()
+    {
+      return source;
+    }
+  }
+}
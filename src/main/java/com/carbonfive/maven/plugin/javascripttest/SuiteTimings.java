@@ -0,0 +1,373 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * How long suites, and tests where the framework times them, took on their recent runs.  The history is an
+ * append-only file with one tab separated line per timing,
+ * <pre>
+ *   S  &lt;millis&gt;  &lt;suite&gt;
+ *   T  &lt;millis&gt;  &lt;suite&gt;  &lt;test&gt;
+ * </pre>
+ * oldest first.  A build appends its timings in one go when it is done, and rewrites the file with only the recent
+ * runs once enough old ones have piled up.  The file is meant to outlive target/ on CI (cached between builds or
+ * shared between the nodes of a sharded build), so entries for suites this build did not run are kept as they are.
+ * Builds that share the file take turns through a lock on &lt;file&gt;.lock, and a rewrite goes to a temporary file
+ * that only replaces the history once it is complete.
+ * <p>
+ * Queries only see the timings of earlier builds, never those recorded during the current one.
+ * <p>
+ * The shards of a build all plan from the file as it was when they started, so they write their timings to a file of
+ * their own instead (see {@link #shardFile}), which the next build that is not sharded folds into the history.
+ */
+public class SuiteTimings
+{
+  private static final int HISTORY = 10;
+  private static final String SUITE = "S";
+  private static final String TEST = "T";
+
+  private static final String SHARD_SUFFIX = ".shard-";
+  private static final String LOCK_SUFFIX = ".lock";
+
+  // a JVM can only hold a file lock once, so builds within one JVM queue for it here first
+  private static final ConcurrentMap<String, Object> JVM_LOCKS = new ConcurrentHashMap<String, Object>();
+
+  private final File file;
+  private File outputFile;
+  private final Map<String, List<Long>> history = new LinkedHashMap<String, List<Long>>();
+  private final List<String> pending = new ArrayList<String>();
+  private final Map<String, Long> current = new LinkedHashMap<String, Long>();
+  private int linesOnDisk;
+
+  public SuiteTimings(File file)
+  {
+    this.file = file;
+  }
+
+  /**
+   * Where a shard of a build appends its timings, next to the history file.
+   */
+  public static File shardFile(File file, int shardIndex, int shardCount)
+  {
+    return new File(file.getParentFile(), file.getName() + SHARD_SUFFIX + shardIndex + "-of-" + shardCount);
+  }
+
+  /**
+   * Appends this build's timings to the given file, e.g. a {@link #shardFile}, and leaves the history file as it is.
+   */
+  public synchronized void setOutputFile(File outputFile)
+  {
+    this.outputFile = outputFile;
+  }
+
+  /**
+   * Appends the timings that sharded builds left next to the history file to it, and deletes their files.
+   *
+   * @return how many shard files were merged
+   */
+  public synchronized int mergeShards()
+    throws IOException
+  {
+    File[] shards = file.getAbsoluteFile().getParentFile().listFiles(new FilenameFilter()
+    {
+      public boolean accept(File directory, String name)
+      {
+        return name.startsWith(file.getName() + SHARD_SUFFIX);
+      }
+    });
+    if (( shards == null ) || ( shards.length == 0 ))
+      return 0;
+
+    Arrays.sort(shards);
+    synchronized ( jvmLock() )
+    {
+      FileChannel lock = lock();
+      try
+      {
+        List<String> lines = new ArrayList<String>();
+        for ( File shard : shards )
+          lines.add(new String(ScriptCache.read(shard), "UTF-8"));
+        append(file, lines);
+        for ( File shard : shards )
+          shard.delete();
+      }
+      finally
+      {
+        lock.close();
+      }
+    }
+    return shards.length;
+  }
+
+  public synchronized void load()
+    throws IOException
+  {
+    history.clear();
+    linesOnDisk = read(file, history);
+  }
+
+  /**
+   * Appends this build's timings, or rewrites the file with just the recent history if it has grown well past it.
+   */
+  public synchronized void save()
+    throws IOException
+  {
+    if ( pending.isEmpty() )
+      return;
+
+    synchronized ( jvmLock() )
+    {
+      FileChannel lock = lock();
+      try
+      {
+        if ( outputFile != null )
+          append(outputFile, pending);
+        else
+          saveHistory();
+      }
+      finally
+      {
+        lock.close();
+      }
+    }
+    pending.clear();
+  }
+
+  /**
+   * Called with the file locked.  Other builds may have appended to it since this one loaded it, so it is read
+   * again before deciding whether to rewrite it.
+   */
+  private void saveHistory()
+    throws IOException
+  {
+    Map<String, List<Long>> onDisk = new LinkedHashMap<String, List<Long>>();
+    linesOnDisk = read(file, onDisk);
+    for ( String line : pending )
+    {
+      String[] fields = line.substring(0, line.length() - 1).split("\t");
+      String key = SUITE.equals(fields[0]) ? fields[2] : testKey(fields[2], fields[3]);
+      remember(onDisk, key, Long.parseLong(fields[1]));
+      remember(history, key, Long.parseLong(fields[1]));
+    }
+
+    int kept = 0;
+    for ( List<Long> durations : onDisk.values() )
+      kept += durations.size();
+    if ( linesOnDisk + pending.size() <= 2 * kept + 100 )
+    {
+      append(file, pending);
+      linesOnDisk += pending.size();
+      return;
+    }
+
+    File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+    Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+    int lines = 0;
+    try
+    {
+      for ( Map.Entry<String, List<Long>> entry : onDisk.entrySet() )
+      {
+        String[] key = entry.getKey().split("\t");
+        for ( Long millis : entry.getValue() )
+        {
+          out.write(key.length == 1 ? line(SUITE, millis, key[0]) : line(TEST, millis, key[0], key[1]));
+          lines++;
+        }
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+
+    if ( ! temp.renameTo(file) )
+    {
+      // renaming over an existing file fails on Windows; the lock keeps other builds out in between
+      file.delete();
+      if ( ! temp.renameTo(file) )
+      {
+        temp.delete();
+        throw new IOException("Could not replace " + file + " with " + temp);
+      }
+    }
+    linesOnDisk = lines;
+  }
+
+  /**
+   * Reads the timings in the file into the history, and returns how many lines it has.
+   */
+  private static int read(File file, Map<String, List<Long>> history)
+    throws IOException
+  {
+    if ( ! file.exists() )
+      return 0;
+
+    int lines = 0;
+    BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    try
+    {
+      for ( String line = in.readLine(); line != null; line = in.readLine() )
+      {
+        lines++;
+        String[] fields = line.split("\t");
+        if ( fields.length < 3 )
+          continue;
+
+        try
+        {
+          long millis = Long.parseLong(fields[1]);
+          if ( SUITE.equals(fields[0]) )
+            remember(history, fields[2], millis);
+          else if ( TEST.equals(fields[0]) && ( fields.length >= 4 ) )
+            remember(history, testKey(fields[2], fields[3]), millis);
+        }
+        catch ( NumberFormatException e )
+        {
+          // a hand edited or truncated line, skip it
+        }
+      }
+    }
+    finally
+    {
+      in.close();
+    }
+    return lines;
+  }
+
+  private static void append(File file, List<String> lines)
+    throws IOException
+  {
+    file.getAbsoluteFile().getParentFile().mkdirs();
+    Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+    try
+    {
+      for ( String line : lines )
+        out.write(line);
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  private Object jvmLock()
+    throws IOException
+  {
+    String path = file.getCanonicalPath();
+    JVM_LOCKS.putIfAbsent(path, new Object());
+    return JVM_LOCKS.get(path);
+  }
+
+  /**
+   * Locks &lt;file&gt;.lock rather than the file itself, which a rewrite replaces.  Closing the channel releases the
+   * lock.
+   */
+  private FileChannel lock()
+    throws IOException
+  {
+    File lockFile = new File(file.getPath() + LOCK_SUFFIX);
+    lockFile.getAbsoluteFile().getParentFile().mkdirs();
+    FileChannel channel = new RandomAccessFile(lockFile, "rw").getChannel();
+    try
+    {
+      channel.lock();
+      return channel;
+    }
+    catch ( IOException e )
+    {
+      channel.close();
+      throw e;
+    }
+  }
+
+  public synchronized boolean isEmpty()
+  {
+    return history.isEmpty();
+  }
+
+  public synchronized void record(String suiteName, long millis)
+  {
+    pending.add(line(SUITE, millis, suiteName));
+    current.put(clean(suiteName), millis);
+  }
+
+  public synchronized void recordTest(String suiteName, String testName, long millis)
+  {
+    pending.add(line(TEST, millis, suiteName, testName));
+    current.put(testKey(clean(suiteName), clean(testName)), millis);
+  }
+
+  /**
+   * Timings recorded by this build, keyed by suite, or by suite and test separated by a tab.
+   */
+  public synchronized Map<String, Long> getCurrent()
+  {
+    return new LinkedHashMap<String, Long>(current);
+  }
+
+  /**
+   * Recorded durations of the suite, oldest first; empty if it never ran.
+   */
+  public synchronized List<Long> getHistory(String suiteName)
+  {
+    List<Long> durations = history.get(clean(suiteName));
+    return durations == null ? new ArrayList<Long>() : new ArrayList<Long>(durations);
+  }
+
+  public synchronized List<Long> getTestHistory(String suiteName, String testName)
+  {
+    List<Long> durations = history.get(testKey(clean(suiteName), clean(testName)));
+    return durations == null ? new ArrayList<Long>() : new ArrayList<Long>(durations);
+  }
+
+  /**
+   * The median of the suite's recorded durations, or null if it never ran.
+   */
+  public synchronized Long getTypicalDuration(String suiteName)
+  {
+    return median(getHistory(suiteName));
+  }
+
+  public static Long median(List<Long> durations)
+  {
+    if ( durations.isEmpty() )
+      return null;
+
+    List<Long> sorted = new ArrayList<Long>(durations);
+    Collections.sort(sorted);
+    int middle = sorted.size() / 2;
+    return sorted.size() % 2 == 1 ? sorted.get(middle) : ( sorted.get(middle - 1) + sorted.get(middle) ) / 2;
+  }
+
+  private static void remember(Map<String, List<Long>> history, String key, long millis)
+  {
+    List<Long> durations = history.get(key);
+    if ( durations == null )
+      history.put(key, durations = new ArrayList<Long>());
+    durations.add(millis);
+    while ( durations.size() > HISTORY )
+      durations.remove(0);
+  }
+
+  static String testKey(String suiteName, String testName)
+  {
+    return suiteName + "\t" + testName;
+  }
+
+  private static String line(String kind, long millis, String... names)
+  {
+    StringBuilder line = new StringBuilder(kind).append('\t').append(millis);
+    for ( String name : names )
+      line.append('\t').append(clean(name));
+    return line.append('\n').toString();
+  }
+
+  private static String clean(String name)
+  {
+    return name == null ? "" : name.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+  }
+}
@@ -0,0 +1,187 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.mozilla.javascript.Context;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import static java.lang.String.format;
+
+/**
+ * Enforces a suite's wall clock and instruction budgets.  {@link RhinoContextFactory} reports executed instructions
+ * every {@link #getObserverThreshold()} instructions; once a budget is exceeded the watchdog throws an Error, which
+ * scripts cannot catch, to unwind the suite.  Because a suite can also sit in env.js sleeping until a far-off timer
+ * is due, the suite thread is interrupted when a deadline passes so the next check comes promptly.
+ * <p>
+ * Wall clock budgets only need to notice a runaway script within a fraction of a second, so unless an instruction
+ * limit is kept Rhino calls back only every {@link #WALL_CLOCK_OBSERVER_THRESHOLD} instructions, which keeps the
+ * default suite timeout cheap enough to leave on.
+ */
+public class SuiteWatchdog
+{
+  public static final int OBSERVER_THRESHOLD = 10000;
+  public static final int WALL_CLOCK_OBSERVER_THRESHOLD = 1000000;
+
+  private static final Timer timer = new Timer("javascript-test-watchdog", true);
+
+  private final String suiteName;
+  private final Thread thread;
+  private final long suiteTimeoutNanos;
+  private final long testTimeoutNanos;
+  private final long instructionLimit;
+
+  private final long suiteDeadline;
+  private long testDeadline;
+  private long instructions;
+  private String currentTest;
+  private TimerTask suiteInterrupt;
+  private TimerTask testInterrupt;
+  private boolean detached;
+
+  public SuiteWatchdog(String suiteName, int suiteTimeoutSeconds, int testTimeoutSeconds, long instructionLimit)
+  {
+    this.suiteName = suiteName;
+    this.thread = Thread.currentThread();
+    this.suiteTimeoutNanos = suiteTimeoutSeconds * 1000000000L;
+    this.testTimeoutNanos = testTimeoutSeconds * 1000000000L;
+    this.instructionLimit = instructionLimit;
+    this.suiteDeadline = suiteTimeoutSeconds > 0 ? System.nanoTime() + suiteTimeoutNanos : 0;
+
+    if ( suiteTimeoutSeconds > 0 )
+      suiteInterrupt = scheduleInterrupt(suiteTimeoutSeconds);
+  }
+
+  public boolean isEnabled()
+  {
+    return ( suiteTimeoutNanos > 0 ) || ( testTimeoutNanos > 0 ) || ( instructionLimit > 0 );
+  }
+
+  /**
+   * How many instructions Rhino executes between calls to {@link #observe}.
+   */
+  public int getObserverThreshold()
+  {
+    return instructionLimit > 0 ? OBSERVER_THRESHOLD : WALL_CLOCK_OBSERVER_THRESHOLD;
+  }
+
+  public static SuiteWatchdog get(Context context)
+  {
+    return (SuiteWatchdog) context.getThreadLocal(SuiteWatchdog.class);
+  }
+
+  public void attach(Context context)
+  {
+    context.putThreadLocal(SuiteWatchdog.class, this);
+    context.setInstructionObserverThreshold(getObserverThreshold());
+  }
+
+  public void detach(Context context)
+  {
+    context.removeThreadLocal(SuiteWatchdog.class);
+    context.setInstructionObserverThreshold(0);
+    stop();
+  }
+
+  /**
+   * Cancels the pending interrupts; for suites on engines the watchdog can't be attached to, where only the wall
+   * clock budget is kept, by interrupting sleeps.
+   */
+  public void stop()
+  {
+    synchronized ( this )
+    {
+      detached = true;
+      cancel(suiteInterrupt);
+      cancel(testInterrupt);
+
+      // don't leave a late interrupt behind for whatever runs next on this thread
+      Thread.interrupted();
+    }
+  }
+
+  public synchronized void testStarted(String name)
+  {
+    currentTest = name;
+    if ( testTimeoutNanos > 0 )
+    {
+      testDeadline = System.nanoTime() + testTimeoutNanos;
+      cancel(testInterrupt);
+      testInterrupt = scheduleInterrupt(testTimeoutNanos / 1000000000L);
+    }
+  }
+
+  public synchronized void testFinished()
+  {
+    currentTest = null;
+    testDeadline = 0;
+    cancel(testInterrupt);
+    testInterrupt = null;
+  }
+
+  /**
+   * Called with the number of instructions executed since the last call.
+   */
+  public synchronized void observe(int instructionCount)
+  {
+    instructions += instructionCount;
+    if (( instructionLimit > 0 ) && ( instructions > instructionLimit ))
+      throw new BudgetExceededError(describe(format("executed more than %d instructions", instructionLimit)));
+
+    if (( suiteDeadline == 0 ) && ( testDeadline == 0 ))
+      return;
+
+    long now = System.nanoTime();
+    if (( suiteDeadline > 0 ) && ( now > suiteDeadline ))
+      throw new BudgetExceededError(describe(format("ran for more than %ds", suiteTimeoutNanos / 1000000000L)));
+    if (( testDeadline > 0 ) && ( now > testDeadline ))
+      throw new BudgetExceededError(describe(format("ran test for more than %ds", testTimeoutNanos / 1000000000L)));
+  }
+
+  public synchronized long getInstructions()
+  {
+    return instructions;
+  }
+
+  private String describe(String problem)
+  {
+    String message = "Suite " + suiteName + " " + problem;
+    if ( currentTest != null )
+      message += " while running test '" + currentTest + "'";
+    return message + "; aborted";
+  }
+
+  private TimerTask scheduleInterrupt(long seconds)
+  {
+    TimerTask task = new TimerTask()
+    {
+      public void run()
+      {
+        synchronized ( SuiteWatchdog.this )
+        {
+          if ( ! detached )
+            thread.interrupt();
+        }
+      }
+    };
+    timer.schedule(task, seconds * 1000 + 50);
+    return task;
+  }
+
+  private static void cancel(TimerTask task)
+  {
+    if ( task != null )
+      task.cancel();
+  }
+
+  /**
+   * An Error rather than an Exception so that neither script try/catch blocks nor env.js' own error handling can
+   * swallow it.
+   */
+  public static class BudgetExceededError extends Error
+  {
+    public BudgetExceededError(String message)
+    {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.io.*;
+import java.util.*;
+
+import static java.lang.String.format;
+
+/**
+ * Compares the timings of the current build with the history in {@link SuiteTimings}: lists the slowest suites and
+ * tests, and finds suites that got markedly slower than their rolling median.
+ */
+public class TimingReport
+{
+  /**
+   * Suites need this many earlier runs before a slowdown is reported, so one unlucky build does not set the bar.
+   */
+  public static final int MINIMUM_HISTORY = 3;
+
+  private final SuiteTimings timings;
+
+  public TimingReport(SuiteTimings timings)
+  {
+    this.timings = timings;
+  }
+
+  public void write(File file, int count)
+    throws IOException
+  {
+    List<Map.Entry<String, Long>> suites = new ArrayList<Map.Entry<String, Long>>();
+    List<Map.Entry<String, Long>> tests = new ArrayList<Map.Entry<String, Long>>();
+    for ( Map.Entry<String, Long> entry : timings.getCurrent().entrySet() )
+      ( entry.getKey().indexOf('\t') < 0 ? suites : tests ).add( entry );
+    sortSlowestFirst( suites );
+    sortSlowestFirst( tests );
+
+    file.getParentFile().mkdirs();
+    PrintWriter out = new PrintWriter( new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) ) );
+    try
+    {
+      out.println( format("Slowest suites (%d run)", suites.size()) );
+      out.println( format("%10s %10s %8s  %s", "this run", "median", "change", "suite") );
+      for ( Map.Entry<String, Long> suite : suites.subList( 0, Math.min( count, suites.size() ) ) )
+        out.println( row( suite.getValue(), timings.getHistory( suite.getKey() ), suite.getKey() ) );
+
+      if ( ! tests.isEmpty() )
+      {
+        out.println();
+        out.println( format("Slowest tests (%d run)", tests.size()) );
+        out.println( format("%10s %10s %8s  %s", "this run", "median", "change", "test") );
+        for ( Map.Entry<String, Long> test : tests.subList( 0, Math.min( count, tests.size() ) ) )
+        {
+          String[] key = test.getKey().split( "\t", 2 );
+          out.println( row( test.getValue(), timings.getTestHistory( key[0], key[1] ), key[1] + " (" + key[0] + ")" ) );
+        }
+      }
+    }
+    finally
+    {
+      out.close();
+    }
+  }
+
+  /**
+   * Descriptions of the suites that took more than the given percentage longer than their median.
+   */
+  public List<String> findSlowdowns(double maxSlowdownPercent)
+  {
+    List<String> slowdowns = new ArrayList<String>();
+    for ( Map.Entry<String, Long> entry : timings.getCurrent().entrySet() )
+    {
+      if ( entry.getKey().indexOf('\t') >= 0 )
+        continue;
+
+      List<Long> history = timings.getHistory( entry.getKey() );
+      Long median = SuiteTimings.median( history );
+      if (( history.size() < MINIMUM_HISTORY ) || ( median == 0 ))
+        continue;
+
+      double change = change( entry.getValue(), median );
+      if ( change > maxSlowdownPercent )
+        slowdowns.add( format("%s took %dms, %.0f%% over its median of %dms", entry.getKey(), entry.getValue(), change, median) );
+    }
+    return slowdowns;
+  }
+
+  private static String row(long millis, List<Long> history, String name)
+  {
+    Long median = SuiteTimings.median( history );
+    if (( median == null ) || ( median == 0 ))
+      return format("%8dms %10s %8s  %s", millis, "-", "-", name);
+    return format("%8dms %8dms %+7.1f%%  %s", millis, median, change( millis, median ), name);
+  }
+
+  private static double change(long millis, long median)
+  {
+    return ( millis - median ) * 100.0 / median;
+  }
+
+  private static void sortSlowestFirst(List<Map.Entry<String, Long>> entries)
+  {
+    Collections.sort( entries, new Comparator<Map.Entry<String, Long>>()
+    {
+      public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b)
+      {
+        return b.getValue().compareTo( a.getValue() );
+      }
+    } );
+  }
+}
@@ -0,0 +1,154 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A simulated clock and timer queue for a suite.  virtual-timers.js routes setTimeout, setInterval, Date and
+ * Envjs.wait() through it, so instead of sleeping until the next timer is due the clock simply jumps to it.  Timers
+ * fire in order of due time, and timers due at the same time in the order they were scheduled, which makes runs
+ * deterministic.
+ */
+public class VirtualClock
+{
+  private final PriorityQueue<Timer> queue = new PriorityQueue<Timer>();
+  private final Map<Integer, Timer> timers = new HashMap<Integer, Timer>();
+  private final long startTime;
+  private long now;
+  private long skipped;
+  private int lastId;
+  private long lastSequence;
+
+  public VirtualClock()
+  {
+    this(System.currentTimeMillis());
+  }
+
+  public VirtualClock(long startTime)
+  {
+    this.startTime = startTime;
+    this.now = startTime;
+  }
+
+  public synchronized double now()
+  {
+    return now;
+  }
+
+  /**
+   * Simulated time the clock jumped over, in milliseconds.
+   */
+  public synchronized long getSkipped()
+  {
+    return skipped;
+  }
+
+  public synchronized long getElapsed()
+  {
+    return now - startTime;
+  }
+
+  public synchronized int pending()
+  {
+    return timers.size();
+  }
+
+  public synchronized int schedule(Object callback, double delay, boolean repeat)
+  {
+    Timer timer = new Timer(++lastId, callback, (long) delay, repeat);
+    timers.put(timer.id, timer);
+    enqueue(timer, now + timer.interval);
+    return timer.id;
+  }
+
+  public synchronized void cancel(double id)
+  {
+    Timer timer = timers.remove((int) id);
+    if ( timer != null )
+    {
+      timer.cancelled = true;
+      queue.remove(timer);
+    }
+  }
+
+  /**
+   * Takes the earliest timer due no later than the given time off the queue, advancing the clock to it, or returns
+   * null if there is none.  A negative limit means no limit.  The caller runs the timer's callback and then hands
+   * it back to {@link #finished}; until then it is not eligible to fire again, which allows callbacks to wait for
+   * timers themselves.
+   */
+  public synchronized Timer next(double until)
+  {
+    Timer timer = queue.peek();
+    if (( timer == null ) || (( until >= 0 ) && ( timer.at > until )))
+      return null;
+
+    queue.poll();
+    advanceTo(timer.at);
+    return timer;
+  }
+
+  public synchronized void finished(Timer timer)
+  {
+    if ( timer.cancelled )
+      return;
+
+    if ( timer.repeat )
+      enqueue(timer, timer.at + timer.interval);
+    else
+      timers.remove(timer.id);
+  }
+
+  public synchronized void advanceTo(double time)
+  {
+    if ( time > now )
+    {
+      skipped += (long) time - now;
+      now = (long) time;
+    }
+  }
+
+  private void enqueue(Timer timer, long at)
+  {
+    timer.at = at;
+    timer.sequence = ++lastSequence;
+    queue.add(timer);
+  }
+
+  public static class Timer implements Comparable<Timer>
+  {
+    private final int id;
+    private final Object callback;
+    private final long interval;
+    private final boolean repeat;
+    private long at;
+    private long sequence;
+    private boolean cancelled;
+
+    Timer(int id, Object callback, long interval, boolean repeat)
+    {
+      this.id = id;
+      this.callback = callback;
+      this.interval = Math.max(interval, 0);
+      this.repeat = repeat;
+    }
+
+    public int getId()
+    {
+      return id;
+    }
+
+    public Object getCallback()
+    {
+      return callback;
+    }
+
+    public int compareTo(Timer other)
+    {
+      if ( at != other.at )
+        return at < other.at ? -1 : 1;
+      return sequence < other.sequence ? -1 : ( sequence == other.sequence ? 0 : 1 );
+    }
+  }
+}
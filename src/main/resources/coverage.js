@@ -0,0 +1,13 @@
+/**
+ * Routes every script env.js evaluates through the suite's coverage hooks ($coverage), which hand back an
+ * instrumented copy of the scripts coverage is collected for.
+ */
+(function(coverage){
+
+  var evaluate = Envjs.eval;
+
+  Envjs.eval = function(context, source, name){
+    return evaluate(context, String(coverage.instrument(source, name)), name);
+  };
+
+})($coverage);
@@ -0,0 +1,232 @@
+/**
+ * A stand-in for env.js for suites that never touch the DOM: a window that is just the global scope, console,
+ * real-time timers and enough of Envjs (eval, wait, sleep) for virtual-timers.js and coverage.js to hook into.
+ * Scripts are compiled through the build's script cache ($scripts).
+ *
+ * A suite is either a plain .js file, which can pull in the code under test with importScripts(...) relative to
+ * itself, or an HTML page whose script elements are run in order without building a document.
+ */
+(function(global, scripts){
+
+  var timers = [],
+      nextId = 1,
+      listeners = {},
+      loaded = [],
+      base = null;
+
+  var now = function() {
+    return new Date().getTime();
+  };
+
+  var format = function(args) {
+    var message = String(args[0]), i = 1;
+    message = message.replace(/%[sdifo]/g, function(match) {
+      return i < args.length ? String(args[i++]) : match;
+    });
+    for (; i < args.length; i++) {
+      message += ' ' + args[i];
+    }
+    return message;
+  };
+
+  var log = function() {
+    print(format(arguments));
+  };
+
+  global.window = global;
+  global.console = { log: log, debug: log, info: log, warn: log, error: log };
+  global.location = { href: '', search: '', protocol: 'file:' };
+
+  global.addEventListener = function(type, fn) {
+    (listeners[type] = listeners[type] || []).push(fn);
+  };
+
+  global.removeEventListener = function(type, fn) {
+    var fns = listeners[type] || [];
+    for (var i = 0; i < fns.length; i++) {
+      if (fns[i] === fn) {
+        fns.splice(i--, 1);
+      }
+    }
+  };
+
+  var schedule = function(fn, time, interval) {
+    if (typeof fn == 'string') {
+      var source = fn;
+      fn = function() {
+        Envjs.eval(global, source, 'timer');
+      };
+    }
+    time = time*1;
+    time = ( isNaN(time) || time < 0 ) ? 0 : time;
+    var timer = { id: nextId++, fn: fn, at: now() + time, interval: interval ? Math.max(time, 10) : 0 };
+    timers.push(timer);
+    return timer.id;
+  };
+
+  var cancel = function(id) {
+    for (var i = 0; i < timers.length; i++) {
+      if (timers[i].id === id) {
+        timers.splice(i, 1);
+        return;
+      }
+    }
+  };
+
+  global.setTimeout = function(fn, time) {
+    return schedule(fn, time, false);
+  };
+
+  global.setInterval = function(fn, time) {
+    return schedule(fn, time, true);
+  };
+
+  global.clearTimeout = global.clearInterval = function(id) {
+    if (id !== null && id !== undefined) {
+      cancel(id);
+    }
+  };
+
+  var resolve = function(url) {
+    url = String(url);
+    if (base === null || /^[a-z][a-z0-9+.\-]*:/i.test(url)) {
+      return url;
+    }
+    return String(base.resolve(new java.net.URI(null, null, url, null)));
+  };
+
+  global.Envjs = {
+
+    /**
+     * Evaluates a script in the global scope, the hook coverage.js wraps.
+     */
+    eval: function(context, source, name) {
+      scripts.exec(context, String(source), String(name));
+    },
+
+    // same contract as env.js' wait: no argument runs timers until none are left, wait(n) runs those due within
+    // the next n ms and wait(0) or wait(-n) only those due now
+    wait: function(wait) {
+      var until = -1, timer, i;
+      if (wait !== null && wait !== undefined) {
+        until = now() + Math.max(wait, 0);
+      }
+
+      for (;;) {
+        timer = null;
+        for (i = 0; i < timers.length; i++) {
+          if (timer === null || timers[i].at < timer.at) {
+            timer = timers[i];
+          }
+        }
+        if (timer === null || ( until >= 0 && timer.at > until )) {
+          break;
+        }
+
+        if (timer.at > now()) {
+          Envjs.sleep(timer.at - now());
+        }
+        if (timer.interval) {
+          timer.at = now() + timer.interval;
+        } else {
+          cancel(timer.id);
+        }
+        try {
+          timer.fn();
+        } catch (e) {
+          console.log('timer error %s %s', timer.fn, e);
+        }
+      }
+
+      if (until > now()) {
+        Envjs.sleep(until - now());
+      }
+    },
+
+    sleep: function(milliseconds) {
+      java.lang.Thread.sleep(milliseconds);
+    },
+
+    loadScript: function(url) {
+      url = resolve(url);
+      loaded.push(url);
+      Envjs.eval(global, readUrl(url, 'UTF-8'), url);
+    },
+
+    /**
+     * Runs a suite: the .js file itself, or the scripts of an HTML page in document order, then fires load.
+     */
+    loadSuite: function(url) {
+      Envjs.loadBundle(url, /\.js$/i.test(url) ? null : Envjs.locateScripts(url));
+    },
+
+    /**
+     * The scripts of an HTML suite page in document order: {src: ...} for external scripts, as the page has it,
+     * and {name: ..., source: ...} for inline ones.
+     */
+    locateScripts: function(url) {
+      var html = String(readUrl(String(url), 'UTF-8')),
+          pattern = /<script\b([^>]*)>([\s\S]*?)<\/script\s*>/gi,
+          scripts = [], match, attributes, src, type, count = 0;
+      while ((match = pattern.exec(html)) !== null) {
+        attributes = match[1];
+        type = /\btype\s*=\s*["']?([^"'\s>]*)/i.exec(attributes);
+        if (type && type[1] && !/javascript/i.test(type[1])) {
+          continue;
+        }
+        src = /\bsrc\s*=\s*["']([^"']*)["']/i.exec(attributes);
+        if (src) {
+          scripts.push({ src: src[1] });
+        } else {
+          // named after their position in the page, so the script cache keeps them between builds
+          scripts.push({ name: String(url) + '#script' + (++count), source: match[2] });
+        }
+      }
+      return scripts;
+    },
+
+    /**
+     * Runs a suite from its scripts as locateScripts lists them, or a .js suite, given no scripts, from the file
+     * itself, then fires load.  The mojo hands in a saved list for pages that haven't changed.
+     */
+    loadBundle: function(url, scripts) {
+      base = new java.net.URI(String(url));
+      global.location.href = String(url);
+      loaded.push(String(url));
+
+      if (scripts === null || scripts === undefined) {
+        Envjs.loadScript(url);
+      } else {
+        for (var i = 0; i < scripts.length; i++) {
+          if (scripts[i].src != null) {
+            Envjs.loadScript(scripts[i].src);
+          } else {
+            Envjs.eval(global, scripts[i].source, scripts[i].name);
+          }
+        }
+      }
+
+      var fns = (listeners.load || []).slice();
+      if (typeof global.onload == 'function') {
+        fns.push(global.onload);
+      }
+      for (var i = 0; i < fns.length; i++) {
+        fns[i].call(global, { type: 'load', target: global });
+      }
+    },
+
+    /**
+     * Every file the suite loaded, the suite itself first, for incremental runs.
+     */
+    loadedScripts: function() {
+      return loaded.slice();
+    }
+  };
+
+  global.importScripts = function() {
+    for (var i = 0; i < arguments.length; i++) {
+      Envjs.loadScript(arguments[i]);
+    }
+  };
+
+})(this, $scripts);
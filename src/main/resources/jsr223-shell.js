@@ -0,0 +1,17 @@
+/**
+ * The Rhino shell functions headless.js relies on, for suites run on a javax.script engine, backed by the
+ * session's shell ($shell, a Jsr223Engine.Shell).
+ */
+(function(global, shell){
+
+  if (typeof global.print != 'function') {
+    global.print = function() {
+      shell.print(Array.prototype.join.call(arguments, ' '));
+    };
+  }
+
+  global.readUrl = function(url, charset) {
+    return String(shell.readUrl(String(url), charset ? String(charset) : 'UTF-8'));
+  };
+
+})(this, $shell);
@@ -0,0 +1,24 @@
+/**
+ * Routes QUnit's callbacks to the suite's report ($report) for suites run on headless.js, where there is no
+ * jQuery to do it as qunit-runner.js does.  Java methods aren't functions on every engine, so they're called
+ * directly, with as many arguments as they take, rather than through apply.
+ */
+(function(report){
+
+  var callbacks = { log: 2, testStart: 2, testDone: 3, moduleStart: 2, moduleDone: 3, begin: 0, done: 2 };
+
+  var forward = function(name, arity) {
+    QUnit[name] = function(a, b, c) {
+      switch (arity) {
+        case 0: return report[name]();
+        case 2: return report[name](a, b);
+        default: return report[name](a, b, c);
+      }
+    };
+  };
+
+  for (var name in callbacks) {
+    forward(name, callbacks[name]);
+  }
+
+})($report);
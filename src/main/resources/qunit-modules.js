@@ -0,0 +1,16 @@
+/**
+ * Registers only the tests of the modules in $modules, for suites split by module between several contexts.
+ * QUnit's own filters match "module: test" names by substring, so they cannot tell a module from another one
+ * whose name contains it.  asyncTest() registers through QUnit.test and is filtered too.
+ */
+(function(filter, window){
+
+  var test = QUnit.test;
+
+  QUnit.test = window.test = function() {
+    if ( filter.accepts(QUnit.config.currentModule || null) ) {
+      return test.apply(this, arguments);
+    }
+  };
+
+})($modules, this);
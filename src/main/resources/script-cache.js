@@ -0,0 +1,16 @@
+/**
+ * Evaluates the external scripts of a suite through the build's script cache ($scripts), so a library every suite
+ * includes is compiled once per build.  Inline scripts get a new name each time and are evaluated as before.
+ */
+(function(scripts){
+
+  var evaluate = Envjs.eval;
+
+  Envjs.eval = function(context, source, name){
+    if (/^file:/.test(name))
+      scripts.exec(context, String(source), String(name));
+    else
+      evaluate(context, source, name);
+  };
+
+})($scripts);
@@ -0,0 +1,24 @@
+/**
+ * Lets go of what a finished suite still has running: pending timers, whose callbacks keep the suite's objects
+ * alive, and its window.  env.js, headless.js and virtual-timers.js all number timers upwards from 1, so a new
+ * timer's id says how many there have been.
+ */
+(function(global){
+
+  try {
+    var last = global.setTimeout(function(){}, 0);
+    for (var id = last; id > 0; id--) {
+      global.clearTimeout(id);
+    }
+  } catch (e) {
+    // the suite replaced or broke the timer functions; the scope is cleared anyway
+  }
+
+  try {
+    if (global.window && typeof global.window.close == 'function') {
+      global.window.close();
+    }
+  } catch (e) {
+  }
+
+})(this);
@@ -0,0 +1,102 @@
+/**
+ * Replaces env.js' real-time timers with the suite's virtual clock ($clock, a VirtualClock).  Loaded right
+ * after env.rhino.js when the virtualTime option is on.  Envjs.wait() never sleeps: it runs due timers in order
+ * and jumps the clock straight to the next one.  Date follows the same clock so code that measures elapsed time,
+ * e.g. debounces and animations, sees the jumps too.
+ */
+(function(clock, RealDate){
+
+  var normalize = function(time) {
+    time = time*1;
+    return ( isNaN(time) || time < 0 ) ? 0 : time;
+  };
+
+  var callback = function(fn) {
+    if (typeof fn == 'string') {
+      var source = fn;
+      return function() {
+        // eval in global scope
+        eval(source, null);
+      };
+    }
+    return fn;
+  };
+
+  setTimeout = function(fn, time){
+    return clock.schedule(callback(fn), normalize(time), false);
+  };
+
+  setInterval = function(fn, time){
+    return clock.schedule(callback(fn), Math.max(normalize(time), 10), true);
+  };
+
+  clearInterval = clearTimeout = function(num){
+    if ( num !== null && num !== undefined ) {
+      clock.cancel(num);
+    }
+  };
+
+  var fire = function(timer) {
+    var fn = timer.callback;
+    try {
+      fn();
+    } catch (e) {
+      console.log('timer error %s %s', fn, e);
+    } finally {
+      clock.finished(timer);
+    }
+  };
+
+  // same contract as env.js' wait: no argument runs timers until none are left, wait(n) runs those due within
+  // the next n ms, wait(0) only those due now, and wait(-n) keeps running timers until the next one is more than
+  // n ms away
+  Envjs.wait = function(wait) {
+    var until = -1, timer;
+    if (wait < 0) {
+      while ((timer = clock.next(clock.now() - wait)) !== null) {
+        fire(timer);
+      }
+      return;
+    }
+
+    if (wait !== null && wait !== undefined) {
+      until = clock.now() + Math.max(wait, 0);
+    }
+
+    while ((timer = clock.next(until)) !== null) {
+      fire(timer);
+    }
+
+    if (until > 0) {
+      clock.advanceTo(until);
+    }
+  };
+
+  Envjs.sleep = function(millseconds){
+    clock.advanceTo(clock.now() + millseconds);
+  };
+
+  var VirtualDate = function(year, month, date, hours, minutes, seconds, ms) {
+    if (!(this instanceof VirtualDate)) {
+      return new RealDate(clock.now()).toString();
+    }
+    switch (arguments.length) {
+      case 0: return new RealDate(clock.now());
+      case 1: return new RealDate(year);
+      case 2: return new RealDate(year, month);
+      case 3: return new RealDate(year, month, date);
+      case 4: return new RealDate(year, month, date, hours);
+      case 5: return new RealDate(year, month, date, hours, minutes);
+      case 6: return new RealDate(year, month, date, hours, minutes, seconds);
+      default: return new RealDate(year, month, date, hours, minutes, seconds, ms);
+    }
+  };
+  VirtualDate.prototype = RealDate.prototype;
+  VirtualDate.parse = RealDate.parse;
+  VirtualDate.UTC = RealDate.UTC;
+  VirtualDate.now = function() {
+    return clock.now();
+  };
+  Date = VirtualDate;
+
+})($clock, Date);
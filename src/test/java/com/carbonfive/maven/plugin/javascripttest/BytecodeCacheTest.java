@@ -0,0 +1,45 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+
+import java.io.File;
+
+public class BytecodeCacheTest
+    extends TestCase
+{
+  private static final String SOURCE = "var total = 0; for (var i = 0; i < 10; i++) total += i; total;";
+
+  public void testInstructionCountingIsPartOfTheKey() throws Exception
+  {
+    File directory = new File( System.getProperty( "java.io.tmpdir" ), "bytecode-" + System.nanoTime() );
+    Context context = Context.enter();
+    try
+    {
+      BytecodeCache cache = new BytecodeCache( directory );
+      Script unobserved = cache.compile( context, SOURCE, "total.js", 1 );
+      assertEquals( 1, cache.getGenerated() );
+
+      context.setInstructionObserverThreshold( 10000 );
+      cache.compile( context, SOURCE, "total.js", 1 );
+      assertEquals( 2, cache.getGenerated() );
+      cache.compile( context, SOURCE, "total.js", 1 );
+      assertEquals( 1, cache.getLoaded() );
+
+      context.setInstructionObserverThreshold( 0 );
+      assertEquals( 45, ((Number) unobserved.exec( context, context.initStandardObjects() )).intValue() );
+
+      String[] entries = directory.list();
+      assertEquals( 2, entries.length );
+      for ( String entry : entries )
+        assertFalse( entry, entry.endsWith( ".tmp" ) );
+    }
+    finally
+    {
+      Context.exit();
+      FileUtils.deleteDirectory( directory );
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import java.io.File;
+
+public class CoverageCollectorTest
+    extends TestCase
+{
+  private static final String SOURCE =
+    "var total = 0;\n" +
+    "function add(n) {\n" +
+    "  if (n > 0) total += n;\n" +
+    "  else total -= n\n" +
+    "  for (var i = 0; i < 2; i++) total++;\n" +
+    "  return total;\n" +
+    "}\n" +
+    "add(1);\n" +
+    "add(2);\n";
+
+  public void testCountsStatementsPerLineAcrossSuites() throws Exception
+  {
+    File basedir = new File( System.getProperty( "java.io.tmpdir" ), "coverage-" + System.nanoTime() );
+    File script = new File( basedir, "src/main/js/add.js" );
+    script.getParentFile().mkdirs();
+    FileUtils.fileWrite( script.getPath(), "UTF-8", SOURCE );
+
+    CoverageCollector collector = new CoverageCollector( basedir, new String[] { "src/main/**/*.js" }, null, new File( basedir, "cache" ) );
+    run( collector, script );
+    run( collector, script );
+
+    File reports = new File( basedir, "reports" );
+    assertEquals( 6.0 / 7.0, collector.writeReports( reports ), 0.0001 );
+
+    String lcov = FileUtils.fileRead( new File( reports, "lcov.info" ) );
+    assertTrue( lcov, lcov.contains( "DA:1,2\n" ) );
+    assertTrue( lcov, lcov.contains( "DA:3,8\n" ) );
+    assertTrue( lcov, lcov.contains( "DA:4,0\n" ) );
+    assertTrue( lcov, lcov.contains( "DA:5,12\n" ) );
+    assertTrue( lcov, lcov.contains( "DA:8,2\n" ) );
+    assertTrue( lcov, lcov.contains( "LF:7\nLH:6\n" ) );
+
+    FileUtils.deleteDirectory( basedir );
+  }
+
+  private void run(CoverageCollector collector, File script) throws Exception
+  {
+    CoverageCollector.SuiteCoverage coverage = collector.startSuite();
+    Context context = Context.enter();
+    try
+    {
+      Scriptable scope = context.initStandardObjects();
+      scope.put( "$coverage", scope, Context.toObject( coverage, scope ) );
+      String instrumented = coverage.instrument( SOURCE, script.toURI().toString() );
+      assertFalse( SOURCE.equals( instrumented ) );
+      context.evaluateString( scope, instrumented, script.getName(), 1, null );
+    }
+    finally
+    {
+      Context.exit();
+    }
+    collector.merge( coverage );
+  }
+}
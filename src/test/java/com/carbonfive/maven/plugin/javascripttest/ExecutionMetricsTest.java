@@ -0,0 +1,55 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+
+public class ExecutionMetricsTest
+    extends TestCase
+{
+  public void testPhasesAreTimedSeparately() throws Exception
+  {
+    ExecutionMetrics metrics = new ExecutionMetrics();
+    ExecutionMetrics.SuiteMetrics suite = metrics.startSuite( "b.html" );
+    suite.phase( ExecutionMetrics.SETUP );
+    Thread.sleep( 20 );
+    suite.phase( ExecutionMetrics.RUN );
+    Thread.sleep( 40 );
+    suite.end();
+    suite.setResults( 3, 1 );
+    metrics.add( suite );
+    metrics.add( metrics.startSuite( "a.html" ) );
+
+    assertTrue( suite.getPhaseSeconds( ExecutionMetrics.SETUP ) >= 0.015 );
+    assertTrue( suite.getPhaseSeconds( ExecutionMetrics.RUN ) >= 0.035 );
+    assertEquals( 0.0, suite.getPhaseSeconds( ExecutionMetrics.PARSE ), 0.0 );
+    assertEquals( suite.getPhaseSeconds( ExecutionMetrics.RUN ), metrics.getPhaseSeconds( ExecutionMetrics.RUN ), 0.0 );
+    assertEquals( "a.html", metrics.getSuites().get(0).getName() );
+  }
+
+  public void testWritesJsonAndPrometheusText() throws Exception
+  {
+    ExecutionMetrics metrics = new ExecutionMetrics();
+    ExecutionMetrics.SuiteMetrics suite = metrics.startSuite( "dir/\"quoted\".html" );
+    suite.phase( ExecutionMetrics.RUN );
+    suite.setResults( 3, 1 );
+    metrics.add( suite );
+
+    File json = File.createTempFile( "metrics", ".json" );
+    File prometheus = File.createTempFile( "metrics", ".prom" );
+    json.deleteOnExit();
+    prometheus.deleteOnExit();
+    metrics.writeJson( json, new ScriptCache() );
+    metrics.writePrometheus( prometheus, new ScriptCache() );
+
+    String jsonText = FileUtils.fileRead( json );
+    assertTrue( jsonText, jsonText.contains( "\"name\": \"dir/\\\"quoted\\\".html\", \"tests\": 3, \"failures\": 1," ) );
+    assertTrue( jsonText, jsonText.contains( "\"scripts\": { \"compiled\": 0, \"cacheHits\": 0," ) );
+
+    String prometheusText = FileUtils.fileRead( prometheus );
+    assertTrue( prometheusText, prometheusText.contains( "javascript_test_suite_failures{suite=\"dir/\\\"quoted\\\".html\"} 1\n" ) );
+    assertTrue( prometheusText, prometheusText.contains( "javascript_test_suite_phase_seconds{suite=\"dir/\\\"quoted\\\".html\",phase=\"parse\"} 0\n" ) );
+    assertTrue( prometheusText, prometheusText.contains( "# TYPE javascript_test_scripts_compiled gauge\njavascript_test_scripts_compiled 0\n" ) );
+  }
+}
@@ -0,0 +1,62 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.util.Set;
+
+public class FileWatcherTest
+    extends TestCase
+{
+  private File directory;
+  private File first;
+  private File second;
+
+  protected void setUp() throws Exception
+  {
+    directory = File.createTempFile( "watch", "" );
+    directory.delete();
+    directory.mkdirs();
+    first = new File( directory, "first.js" ).getCanonicalFile();
+    second = new File( directory, "second.js" ).getCanonicalFile();
+    FileUtils.fileWrite( first.getPath(), "var first = 1;" );
+    FileUtils.fileWrite( second.getPath(), "var second = 1;" );
+  }
+
+  protected void tearDown() throws Exception
+  {
+    FileUtils.deleteDirectory( directory );
+  }
+
+  public void testChangesWithinTheQuietPeriodComeBackAsOneBatch() throws Exception
+  {
+    FileWatcher watcher = new FileWatcher( directory );
+
+    Thread save = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          FileUtils.fileWrite( first.getPath(), "var first = 22;" );
+          Thread.sleep( 100 );
+          FileUtils.fileWrite( second.getPath(), "var second = 22;" );
+        }
+        catch ( Exception e )
+        {
+          throw new RuntimeException( e );
+        }
+      }
+    };
+    save.start();
+
+    Set<File> changed = watcher.waitForChanges( 10, 500 );
+    save.join();
+
+    assertEquals( 2, changed.size() );
+    assertTrue( changed.contains( first ) );
+    assertTrue( changed.contains( second ) );
+    assertTrue( watcher.poll().isEmpty() );
+  }
+}
@@ -0,0 +1,72 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+public class ForkProtocolTest
+    extends TestCase
+{
+  public void testFieldsSurviveEscaping()
+  {
+    String[] fields = { ForkProtocol.TEST, "a\tmodule", "line one\nline two\r\n", null, "C:\\tests\\n", "", "\\-" };
+
+    String line = ForkProtocol.encode( fields );
+
+    assertEquals( -1, line.indexOf( '\n' ) );
+    assertTrue( Arrays.equals( fields, ForkProtocol.decode( line ) ) );
+  }
+
+  public void testMessagesAreReadInOrder() throws Exception
+  {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    ForkProtocol out = new ForkProtocol( new ByteArrayInputStream( new byte[0] ), sent );
+    out.write( ForkProtocol.RUN, "suite.html" );
+    out.write( ForkProtocol.LOG, "info", "caf\u00e9\n" );
+    out.write( ForkProtocol.QUIT );
+
+    ForkProtocol in = new ForkProtocol( new ByteArrayInputStream( sent.toByteArray() ), new ByteArrayOutputStream() );
+    assertTrue( Arrays.equals( new String[] { "R", "suite.html" }, in.read() ) );
+    assertTrue( Arrays.equals( new String[] { "L", "info", "caf\u00e9\n" }, in.read() ) );
+    assertTrue( Arrays.equals( new String[] { "Q" }, in.read() ) );
+    assertNull( in.read() );
+  }
+
+  public void testTestsOfAForkThatDiesAreKept() throws Exception
+  {
+    if ( ! new File( "/bin/sh" ).exists() )
+      return;
+
+    // a fork that answers the configuration, finishes one test and dies
+    String script = "read configure; echo H; read run; printf 'T\\tmodule\\tfirst\\t\\\\-\\t1\\t5000\\t\\\\-\\n'; exit 3";
+    ForkClient fork = new ForkClient( Arrays.asList( "/bin/sh", "-c", script ), new File( "." ), "mojo",
+                                      new LinkedHashMap<String, String>(), new SystemStreamLog() );
+    final List<String> tests = new ArrayList<String>();
+    try
+    {
+      fork.run( "suite.html", new SystemStreamLog(), new ForkClient.TestHandler()
+      {
+        public void testFinished(String module, String test, String error, int assertions, long timeNanos, String output)
+        {
+          tests.add( module + "/" + test + "/" + error + "/" + assertions + "/" + timeNanos );
+        }
+      } );
+      fail( "Expected the fork to die" );
+    }
+    catch ( IOException e )
+    {
+      assertTrue( e.getMessage(), e.getMessage().contains( "died while running suite.html" ) );
+    }
+    finally
+    {
+      fork.close();
+    }
+    assertEquals( Arrays.asList( "module/first/null/1/5000" ), tests );
+  }
+}
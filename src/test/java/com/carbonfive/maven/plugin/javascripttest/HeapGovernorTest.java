@@ -0,0 +1,73 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+
+public class HeapGovernorTest
+    extends TestCase
+{
+  public void testLoneSuiteAlwaysStarts() throws Exception
+  {
+    // a reserve no heap can meet
+    HeapGovernor governor = new HeapGovernor( Long.MAX_VALUE );
+    governor.acquire();
+    governor.release();
+    governor.acquire();
+    governor.release();
+
+    assertEquals( 0, governor.getHeldBack() );
+  }
+
+  public void testSuiteWaitsForHeadroomUntilOthersFinish() throws Exception
+  {
+    final HeapGovernor governor = new HeapGovernor( Long.MAX_VALUE );
+    governor.acquire();
+
+    Thread second = new Thread()
+    {
+      public void run()
+      {
+        try
+        {
+          governor.acquire();
+          governor.release();
+        }
+        catch ( InterruptedException e )
+        {
+          // test fails below
+        }
+      }
+    };
+    second.start();
+    second.join( 300 );
+    assertTrue( second.isAlive() );
+
+    governor.release();
+    second.join( 2000 );
+    assertFalse( second.isAlive() );
+    assertEquals( 1, governor.getHeldBack() );
+  }
+
+  public void testExtraContextIsRefusedWithoutHeadroom() throws Exception
+  {
+    HeapGovernor governor = new HeapGovernor( Long.MAX_VALUE );
+    assertTrue( governor.tryAcquire() );
+    assertFalse( governor.tryAcquire() );
+    governor.release();
+    assertTrue( governor.tryAcquire() );
+    governor.release();
+
+    HeapGovernor roomy = new HeapGovernor( 0 );
+    assertTrue( roomy.tryAcquire() );
+    assertTrue( roomy.tryAcquire() );
+  }
+
+  public void testEstimateIsTheAverageGrowth()
+  {
+    HeapGovernor governor = new HeapGovernor( 0 );
+    governor.record( 100 );
+    governor.record( 300 );
+    governor.record( -50 );
+
+    assertEquals( 200, governor.getEstimate() );
+  }
+}
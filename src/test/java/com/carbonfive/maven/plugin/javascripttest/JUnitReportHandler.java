@@ -0,0 +1,100 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads back the JUnit reports the mojos write, failing on anything that isn't well formed XML.
+ */
+class JUnitReportHandler extends DefaultHandler
+{
+  private List<String> tests = new ArrayList<String>();
+  private List<String> classNames = new ArrayList<String>();
+  private Map<String,String> errors = new HashMap<String,String>();
+  private String currentTest = null;
+  private int testCount = 0;
+  private int errorCount = 0;
+  private int failureCount = 0;
+
+  public static JUnitReportHandler parse(File reportFile)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    JUnitReportHandler report = new JUnitReportHandler();
+    SAXParserFactory.newInstance().newSAXParser().parse( reportFile, report );
+    return report;
+  }
+
+  public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException
+  {
+    if ( "testsuite".equals( qName ) )
+    {
+      testCount = Integer.parseInt( atts.getValue("tests") );
+      errorCount = Integer.parseInt( atts.getValue("errors") );
+      failureCount = Integer.parseInt( atts.getValue("failures") );
+    }
+    else if ( "testcase".equals( qName ) )
+    {
+      String name = atts.getValue("name");
+      tests.add(name);
+      classNames.add(atts.getValue("classname"));
+      currentTest = name;
+    }
+    else if ( "failure".equals( qName ) )
+    {
+      errors.put( currentTest, atts.getValue("message") );
+    }
+  }
+
+  @Override
+  public void error(SAXParseException e) throws SAXException
+  {
+    throw new SAXException( e );
+  }
+
+  @Override
+  public void fatalError(SAXParseException e) throws SAXException
+  {
+    throw new SAXException( e );
+  }
+
+  public List<String> getTests()
+  {
+    return tests;
+  }
+
+  public List<String> getClassNames()
+  {
+    return classNames;
+  }
+
+  public Map<String, String> getErrors()
+  {
+    return errors;
+  }
+
+  public int getTestCount()
+  {
+    return testCount;
+  }
+
+  public int getErrorCount()
+  {
+    return errorCount;
+  }
+
+  public int getFailureCount()
+  {
+    return failureCount;
+  }
+}
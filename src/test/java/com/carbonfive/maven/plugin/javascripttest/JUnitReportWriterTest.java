@@ -0,0 +1,63 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JUnitReportWriterTest
+    extends TestCase
+{
+  public void testEscapesNamesMessagesAndOutput() throws Exception
+  {
+    File reportFile = File.createTempFile( "TEST-escaping", ".xml" );
+    reportFile.deleteOnExit();
+
+    JUnitReportWriter writer = new JUnitReportWriter( reportFile, "suite \"<one>\"" );
+    writer.testCase( "suite.Module & Co", "compares <b>tags</b>", 0.001, "expected \"a\" & got <b>\n", "PASS: x < y\u0001" );
+    writer.testCase( "suite", "plain", 0.002, null, null );
+    writer.close( 2, 1, 0.003 );
+
+    final List<String> names = new ArrayList<String>();
+    final List<String> failures = new ArrayList<String>();
+    final StringBuilder output = new StringBuilder();
+    SAXParserFactory.newInstance().newSAXParser().parse( reportFile, new DefaultHandler()
+    {
+      private boolean inSystemOut;
+
+      public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException
+      {
+        if ( "testsuite".equals( qName ) )
+          names.add( atts.getValue("name") );
+        else if ( "testcase".equals( qName ) )
+          names.add( atts.getValue("name") );
+        else if ( "failure".equals( qName ) )
+          failures.add( atts.getValue("message") );
+        inSystemOut = "system-out".equals( qName );
+      }
+
+      public void endElement(String uri, String localName, String qName)
+      {
+        inSystemOut = false;
+      }
+
+      public void characters(char[] ch, int start, int length)
+      {
+        if ( inSystemOut )
+          output.append( ch, start, length );
+      }
+    } );
+
+    assertEquals( "suite \"<one>\"", names.get(0) );
+    assertEquals( "compares <b>tags</b>", names.get(1) );
+    assertEquals( "plain", names.get(2) );
+    assertEquals( "expected \"a\" & got <b>\n", failures.get(0) );
+    assertEquals( "PASS: x < y\ufffd", output.toString() );
+    assertFalse( new File( reportFile.getPath() + ".part" ).exists() );
+  }
+}
@@ -0,0 +1,35 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ModuleFilterTest
+    extends TestCase
+{
+  public void testModulesAreDealtOutInOrder()
+  {
+    List<ModuleFilter> parts = ModuleFilter.partition( Arrays.asList( "Core", "Core extras", "Events", "Ajax", "Effects" ), 2 );
+
+    assertEquals( 2, parts.size() );
+    assertTrue( parts.get(0).accepts( "Core" ) );
+    assertTrue( parts.get(0).accepts( "Events" ) );
+    assertTrue( parts.get(0).accepts( "Effects" ) );
+    assertTrue( parts.get(1).accepts( "Core extras" ) );
+    assertTrue( parts.get(1).accepts( "Ajax" ) );
+    assertFalse( parts.get(1).accepts( "Core" ) );
+    assertEquals( 3, parts.get(0).size() );
+  }
+
+  public void testTestsOutsideModulesRunInTheFirstPart()
+  {
+    List<ModuleFilter> parts = ModuleFilter.partition( Arrays.asList( "A", "B" ), 4 );
+
+    assertEquals( 2, parts.size() );
+    assertTrue( parts.get(0).accepts( null ) );
+    assertFalse( parts.get(1).accepts( null ) );
+    assertFalse( ModuleFilter.none().accepts( null ) );
+    assertFalse( ModuleFilter.none().accepts( "A" ) );
+  }
+}
@@ -3,17 +3,11 @@ package com.carbonfive.maven.plugin.javascripttest;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 import org.apache.maven.plugin.MojoFailureException;
 import org.xml.sax.*;
-import org.xml.sax.helpers.DefaultHandler;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.script.ScriptEngineManager;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.HashMap;
-import java.util.Map;
 
 public class QUnitTestMojoTest
     extends AbstractMojoTestCase
@@ -34,6 +28,177 @@ public class QUnitTestMojoTest
     assertNotNull( mojo );
 
     mojo.execute();
+
+    JUnitReportHandler report = parseJUnitReport("TEST-src.test.javascript.qunit.suite-basic.html.xml");
+
+    assertEquals( 4, report.getTestCount() );
+    assertEquals( 0, report.getFailureCount() );
+
+    String[] expectedTests = new String[] { "a basic test example",
+                                            "first test within module",
+                                            "second test within module",
+                                            "some other test" };
+
+    assertEquals( expectedTests.length, report.getTests().size() );
+    for ( int i=0; i < expectedTests.length; i++ )
+      assertEquals( expectedTests[i], report.getTests().get(i) );
+
+    assertEquals( "src.test.javascript.qunit.suite-basic.html.Module A", report.getClassNames().get(1) );
+  }
+
+  public void testFailingTestSuite() throws Exception
+  {
+    File testPom = new File( getBasedir(), "src/test/resources/test-qunit-project/pom_fail.xml" );
+
+    QUnitTestMojo mojo = (QUnitTestMojo) lookupMojo( "qunit-test", testPom );
+
+    mojo.setBasedir( new File( getBasedir(), "src/test/resources/test-qunit-project" ) );
+
+    assertNotNull( mojo );
+
+    try
+    {
+      mojo.execute();
+      fail("Expected test failure exception");
+    }
+    catch ( MojoFailureException mfe )
+    {
+      JUnitReportHandler report = parseJUnitReport("TEST-src.test.javascript.qunit.fail-suite.html.xml");
+
+      assertEquals( 2, report.getTestCount() );
+      assertEquals( 1, report.getFailureCount() );
+      assertEquals( 1, report.getErrors().size() );
+      assertTrue( report.getErrors().get("failing test").startsWith("failing assertion, expected: false") );
+    }
+  }
+
+  public void testRunawayTestIsAborted() throws Exception
+  {
+    File testPom = new File( getBasedir(), "src/test/resources/test-qunit-project/pom_runaway.xml" );
+
+    QUnitTestMojo mojo = (QUnitTestMojo) lookupMojo( "qunit-test", testPom );
+
+    mojo.setBasedir( new File( getBasedir(), "src/test/resources/test-qunit-project" ) );
+
+    assertNotNull( mojo );
+
+    try
+    {
+      mojo.execute();
+      fail("Expected test failure exception");
+    }
+    catch ( MojoFailureException mfe )
+    {
+      assertTrue( mfe.getMessage(), mfe.getMessage().contains("src/test/javascript/qunit/runaway-suite.html") );
+      assertTrue( mfe.getMessage(), mfe.getMessage().contains("'Module B: runaway test'") );
+
+      JUnitReportHandler report = parseJUnitReport("TEST-src.test.javascript.qunit.runaway-suite.html.xml");
+
+      assertEquals( 2, report.getTestCount() );
+      assertEquals( 1, report.getFailureCount() );
+      assertEquals( mfe.getMessage(), report.getErrors().get("runaway test") );
+    }
+  }
+
+  public void testVirtualTimeSkipsTimerDelays() throws Exception
+  {
+    File testPom = new File( getBasedir(), "src/test/resources/test-qunit-project/pom_virtual_time.xml" );
+
+    QUnitTestMojo mojo = (QUnitTestMojo) lookupMojo( "qunit-test", testPom );
+
+    mojo.setBasedir( new File( getBasedir(), "src/test/resources/test-qunit-project" ) );
+
+    assertNotNull( mojo );
+
+    long startTime = System.currentTimeMillis();
+    mojo.execute();
+    assertTrue( System.currentTimeMillis() - startTime < 30000 );
+
+    JUnitReportHandler report = parseJUnitReport("TEST-src.test.javascript.qunit.timers-suite.html.xml");
+
+    assertEquals( 2, report.getTestCount() );
+    assertEquals( 0, report.getFailureCount() );
+  }
+
+  public void testHeadlessSuitesRunWithoutADom() throws Exception
+  {
+    File testPom = new File( getBasedir(), "src/test/resources/test-qunit-project/pom_headless.xml" );
+
+    QUnitTestMojo mojo = (QUnitTestMojo) lookupMojo( "qunit-test", testPom );
+
+    mojo.setBasedir( new File( getBasedir(), "src/test/resources/test-qunit-project" ) );
+
+    assertNotNull( mojo );
+
+    mojo.execute();
+
+    JUnitReportHandler report = parseJUnitReport("TEST-src.test.javascript.qunit.headless.formatter-suite.js.xml");
+
+    assertEquals( 4, report.getTestCount() );
+    assertEquals( 0, report.getFailureCount() );
+    assertEquals( "src.test.javascript.qunit.headless.formatter-suite.js.Formatter", report.getClassNames().get(0) );
+
+    report = parseJUnitReport("TEST-src.test.javascript.qunit.headless.validator-suite.html.xml");
+
+    assertEquals( 2, report.getTestCount() );
+    assertEquals( 0, report.getFailureCount() );
+  }
+
+  public void testHeadlessSuitesRunOnJsr223Engine() throws Exception
+  {
+    // only JVMs before Java 15 come with a JavaScript engine
+    if ( new ScriptEngineManager().getEngineByName( "javascript" ) == null )
+      return;
+
+    File testPom = new File( getBasedir(), "src/test/resources/test-qunit-project/pom_headless.xml" );
+
+    QUnitTestMojo mojo = (QUnitTestMojo) lookupMojo( "qunit-test", testPom );
+    mojo.setBasedir( new File( getBasedir(), "src/test/resources/test-qunit-project" ) );
+    setVariableValueToObject( mojo, "engine", "jsr223" );
+    mojo.execute();
+
+    JUnitReportHandler report = parseJUnitReport("TEST-src.test.javascript.qunit.headless.formatter-suite.js.xml");
+
+    assertEquals( 4, report.getTestCount() );
+    assertEquals( 0, report.getFailureCount() );
+
+    report = parseJUnitReport("TEST-src.test.javascript.qunit.headless.validator-suite.html.xml");
+
+    assertEquals( 2, report.getTestCount() );
+    assertEquals( 0, report.getFailureCount() );
   }
 
-}
\ No newline at end of file
+  public void testSuiteSplitByModuleIsMergedInOrder() throws Exception
+  {
+    File testPom = new File( getBasedir(), "src/test/resources/test-qunit-project/pom_split.xml" );
+
+    QUnitTestMojo mojo = (QUnitTestMojo) lookupMojo( "qunit-test", testPom );
+
+    mojo.setBasedir( new File( getBasedir(), "src/test/resources/test-qunit-project" ) );
+
+    mojo.execute();
+
+    JUnitReportHandler report = parseJUnitReport("TEST-src.test.javascript.qunit.suite-basic.html.xml");
+
+    assertEquals( 4, report.getTestCount() );
+    assertEquals( 0, report.getFailureCount() );
+
+    String[] expectedTests = new String[] { "a basic test example",
+                                            "first test within module",
+                                            "second test within module",
+                                            "some other test" };
+
+    assertEquals( expectedTests.length, report.getTests().size() );
+    for ( int i=0; i < expectedTests.length; i++ )
+      assertEquals( expectedTests[i], report.getTests().get(i) );
+
+    assertEquals( "src.test.javascript.qunit.suite-basic.html.Module A", report.getClassNames().get(1) );
+    assertEquals( "src.test.javascript.qunit.suite-basic.html.Module B", report.getClassNames().get(3) );
+  }
+
+  private JUnitReportHandler parseJUnitReport(String reportFile)
+    throws ParserConfigurationException, SAXException, IOException
+  {
+    return JUnitReportHandler.parse( new File( getBasedir(), "src/test/resources/test-qunit-project/target/screw-unit/" + reportFile ) );
+  }
+}
@@ -0,0 +1,59 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class ReportPipelineTest
+    extends TestCase
+{
+  public void testDrainWaitsForEveryReport() throws Exception
+  {
+    final List<Integer> written = Collections.synchronizedList( new ArrayList<Integer>() );
+    ReportPipeline pipeline = new ReportPipeline( 2 );
+    for ( int i=0; i < 10; i++ )
+    {
+      final int report = i;
+      pipeline.submit( new Callable<Void>()
+      {
+        public Void call() throws Exception
+        {
+          Thread.sleep( 5 );
+          written.add( report );
+          return null;
+        }
+      } );
+    }
+    pipeline.drain();
+    pipeline.close();
+
+    assertEquals( 10, written.size() );
+  }
+
+  public void testDrainThrowsTheFirstFailure() throws Exception
+  {
+    ReportPipeline pipeline = new ReportPipeline( 2 );
+    pipeline.submit( new Callable<Void>()
+    {
+      public Void call() throws Exception
+      {
+        throw new IOException( "disk full" );
+      }
+    } );
+    try
+    {
+      pipeline.drain();
+      fail( "Expected the report failure" );
+    }
+    catch ( IOException e )
+    {
+      assertEquals( "disk full", e.getMessage() );
+    }
+    pipeline.drain();
+    pipeline.close();
+  }
+}
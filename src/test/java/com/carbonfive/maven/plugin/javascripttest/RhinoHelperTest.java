@@ -0,0 +1,79 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import java.util.List;
+
+public class RhinoHelperTest
+    extends TestCase
+{
+  private static final String TESTS_FUNCTION =
+    "return [ { test: 'adds', passed: true, assertions: 3, time: 1.5 }, { test: 'divides', error: 'NaN', assertions: 0 }, null ];";
+
+  public void testCompilesEachFunctionOncePerScope() throws Exception
+  {
+    Context context = Context.enter();
+    try
+    {
+      Scriptable scope = context.initStandardObjects();
+      Scriptable other = context.initStandardObjects();
+      String function = "return arguments[0] + ' ' + this.name;";
+      scope.put( "name", scope, "one" );
+      other.put( "name", other, "two" );
+
+      assertSame( RhinoHelper.compileFunction( function, "name", context, scope ), RhinoHelper.compileFunction( function, "name", context, scope ) );
+      assertNotSame( RhinoHelper.compileFunction( function, "name", context, scope ), RhinoHelper.compileFunction( function, "name", context, other ) );
+      assertEquals( "scope one", RhinoHelper.execStringFunction( function, "name", context, scope, "scope" ) );
+      assertEquals( "scope two", RhinoHelper.execStringFunction( function, "name", context, other, "scope" ) );
+    }
+    finally
+    {
+      Context.exit();
+    }
+  }
+
+  public void testConvertsResultArraysInOnePass() throws Exception
+  {
+    Context context = Context.enter();
+    try
+    {
+      Scriptable scope = context.initStandardObjects();
+
+      String[][] records = RhinoHelper.execRecordArrayFunction( TESTS_FUNCTION, "tests", context, scope, "test", "error", "assertions" );
+      assertEquals( 3, records.length );
+      assertEquals( "adds", records[0][0] );
+      assertNull( records[0][1] );
+      assertEquals( "3", records[0][2] );
+      assertEquals( "NaN", records[1][1] );
+      assertNull( records[2][0] );
+
+      List<Long> assertions = RhinoHelper.execRecordFunction( TESTS_FUNCTION, "tests", context, scope, new RhinoHelper.RecordMapper<Long>()
+      {
+        public Long map(RhinoHelper.Record record)
+        {
+          return record.isSet( 1 ) ? -1 : record.getLong( 0 );
+        }
+      }, "assertions", "error" );
+      assertEquals( 3, assertions.size() );
+      assertEquals( Long.valueOf( 3 ), assertions.get( 0 ) );
+      assertEquals( Long.valueOf( -1 ), assertions.get( 1 ) );
+      assertEquals( Long.valueOf( 0 ), assertions.get( 2 ) );
+
+      Object array = context.evaluateString( scope, "[ 1, 2.5, 'x', null ]", "array", 1, null );
+      double[] numbers = RhinoHelper.toDoubleArray( array );
+      assertEquals( 2.5, numbers[1], 0 );
+      assertTrue( Double.isNaN( numbers[2] ) );
+      assertEquals( 1, RhinoHelper.toLongArray( array )[0] );
+      assertFalse( RhinoHelper.toBooleanArray( array )[3] );
+      assertEquals( "x", RhinoHelper.toStringArray( array )[2] );
+      assertNull( RhinoHelper.toStringArray( array )[3] );
+      assertNull( RhinoHelper.toStringArray( "not an array" ) );
+    }
+    finally
+    {
+      Context.exit();
+    }
+  }
+}
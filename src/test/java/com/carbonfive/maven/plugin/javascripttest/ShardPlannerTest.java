@@ -0,0 +1,63 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShardPlannerTest
+    extends TestCase
+{
+  private static final String[] SUITES = { "a.html", "b.html", "c.html", "d.html", "e.html", "f.html" };
+
+  public void testHashesSuiteNamesWithoutTimings() throws Exception
+  {
+    ShardPlanner planner = new ShardPlanner( 3, new SuiteTimings( temporaryFile() ) );
+    assertEquals( ShardPlanner.HASH, planner.getStrategy() );
+
+    List<List<String>> shards = planner.plan( SUITES );
+    assertEquals( 3, shards.size() );
+    assertEveryShardRunsOnce( shards );
+    assertEquals( shards, planner.plan( SUITES ) );
+  }
+
+  public void testPacksLongestSuitesFirst() throws Exception
+  {
+    SuiteTimings timings = new SuiteTimings( temporaryFile() );
+    timings.record( "a.html", 100 );
+    timings.record( "b.html", 900 );
+    timings.record( "c.html", 400 );
+    timings.record( "d.html", 500 );
+    timings.record( "e.html", 300 );
+    timings.save();
+    // f.html has no timing and counts as an average suite, 440ms
+
+    ShardPlanner planner = new ShardPlanner( 2, timings );
+    assertEquals( ShardPlanner.DURATION, planner.getStrategy() );
+
+    List<List<String>> shards = planner.plan( SUITES );
+    assertEveryShardRunsOnce( shards );
+    // b(900) -> 0, d(500) -> 1, f(440) -> 1, c(400) -> 0, e(300) -> 1, a(100) -> 1
+    assertEquals( "[b.html, c.html]", shards.get(0).toString() );
+    assertEquals( "[a.html, d.html, e.html, f.html]", shards.get(1).toString() );
+  }
+
+  private File temporaryFile() throws Exception
+  {
+    File file = File.createTempFile( "timings", ".tsv" );
+    file.delete();
+    file.deleteOnExit();
+    return file;
+  }
+
+  private void assertEveryShardRunsOnce(List<List<String>> shards)
+  {
+    List<String> all = new ArrayList<String>();
+    for ( List<String> shard : shards )
+      all.addAll( shard );
+    assertEquals( SUITES.length, all.size() );
+    for ( String suite : SUITES )
+      assertTrue( all.contains( suite ) );
+  }
+}
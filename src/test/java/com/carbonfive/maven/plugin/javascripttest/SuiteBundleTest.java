@@ -0,0 +1,59 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+
+public class SuiteBundleTest
+    extends TestCase
+{
+  private File directory;
+  private File suite;
+  private File script;
+
+  protected void setUp() throws Exception
+  {
+    directory = File.createTempFile( "bundle", "" );
+    directory.delete();
+    new File( directory, "lib" ).mkdirs();
+    suite = new File( directory, "suite.html" );
+    script = new File( directory, "lib/code.js" );
+    FileUtils.fileWrite( suite.getPath(), "<script src=\"lib/code.js\"></script><script>test();</script>" );
+    FileUtils.fileWrite( script.getPath(), "var code = 1;" );
+  }
+
+  protected void tearDown() throws Exception
+  {
+    FileUtils.deleteDirectory( directory );
+  }
+
+  public void testSavedBundleIsUsedUntilAScriptChanges() throws Exception
+  {
+    SuiteBundle.Script[] scripts = { new SuiteBundle.Script( "lib/code.js", null, null ),
+                                     new SuiteBundle.Script( null, "suite.html#script1", "test();\n\tdone();" ) };
+    File file = new File( directory, "bundles/suite.html.properties" );
+    new SuiteBundle( SuiteBundle.computeKey( suite, scripts ), scripts ).save( file );
+
+    SuiteBundle bundle = SuiteBundle.load( file, suite );
+    assertNotNull( bundle );
+    assertEquals( 2, bundle.getScripts().length );
+    assertEquals( "lib/code.js", bundle.getScripts()[0].getSrc() );
+    assertNull( bundle.getScripts()[0].getSource() );
+    assertNull( bundle.getScripts()[1].getSrc() );
+    assertEquals( "suite.html#script1", bundle.getScripts()[1].getName() );
+    assertEquals( "test();\n\tdone();", bundle.getScripts()[1].getSource() );
+
+    FileUtils.fileWrite( script.getPath(), "var code = 2;" );
+    assertNull( SuiteBundle.load( file, suite ) );
+  }
+
+  public void testBundleWithRemoteScriptsIsNotSaved() throws Exception
+  {
+    SuiteBundle.Script[] scripts = { new SuiteBundle.Script( "http://example.com/code.js", null, null ) };
+    File file = new File( directory, "bundles/suite.html.properties" );
+    new SuiteBundle( SuiteBundle.computeKey( suite, scripts ), scripts ).save( file );
+
+    assertFalse( file.exists() );
+  }
+}
@@ -0,0 +1,136 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+public class SuiteTimingsTest
+    extends TestCase
+{
+  public void testTypicalDurationIsTheMedianOfRecentRuns() throws Exception
+  {
+    File file = temporaryFile();
+    SuiteTimings timings = new SuiteTimings( file );
+    timings.record( "a.html", 100 );
+    timings.save();
+    timings.record( "a.html", 5000 );
+    timings.recordTest( "a.html", "first test", 40 );
+    timings.save();
+    timings.record( "a.html", 120 );
+    assertEquals( Long.valueOf( 2550 ), timings.getTypicalDuration( "a.html" ) );
+    timings.save();
+
+    timings = new SuiteTimings( file );
+    timings.load();
+
+    assertEquals( Long.valueOf( 120 ), timings.getTypicalDuration( "a.html" ) );
+    assertNull( timings.getTypicalDuration( "b.html" ) );
+    assertEquals( Arrays.asList( 40L ), timings.getTestHistory( "a.html", "first test" ) );
+  }
+
+  public void testOnlyRecentRunsAreKept() throws Exception
+  {
+    File file = temporaryFile();
+    SuiteTimings timings = new SuiteTimings( file );
+    for ( int i=1; i <= 200; i++ )
+    {
+      timings.record( "a.html", i );
+      timings.save();
+    }
+
+    timings = new SuiteTimings( file );
+    timings.load();
+    assertEquals( Arrays.asList( 191L, 192L, 193L, 194L, 195L, 196L, 197L, 198L, 199L, 200L ), timings.getHistory( "a.html" ) );
+    assertTrue( file.length() < 200 * "S\t200\ta.html\n".length() );
+  }
+
+  public void testBuildsSharingTheFileKeepEachOthersTimings() throws Exception
+  {
+    File file = temporaryFile();
+    SuiteTimings first = new SuiteTimings( file );
+    SuiteTimings second = new SuiteTimings( file );
+    first.load();
+    second.load();
+    for ( int i=1; i <= 200; i++ )
+    {
+      first.record( "a.html", i );
+      first.save();
+      second.record( "b.html", i );
+      second.save();
+    }
+
+    SuiteTimings timings = new SuiteTimings( file );
+    timings.load();
+    assertEquals( Arrays.asList( 191L, 192L, 193L, 194L, 195L, 196L, 197L, 198L, 199L, 200L ), timings.getHistory( "a.html" ) );
+    assertEquals( Arrays.asList( 191L, 192L, 193L, 194L, 195L, 196L, 197L, 198L, 199L, 200L ), timings.getHistory( "b.html" ) );
+    assertTrue( file.length() < 200 * "S\t200\ta.html\n".length() );
+
+    File[] leftovers = file.getParentFile().listFiles();
+    for ( File leftover : leftovers )
+      assertFalse( leftover.getName(), leftover.getName().startsWith( file.getName() ) && leftover.getName().endsWith( ".tmp" ) );
+  }
+
+  public void testSlowdownsAreMeasuredAgainstTheMedian() throws Exception
+  {
+    File file = temporaryFile();
+    SuiteTimings timings = new SuiteTimings( file );
+    for ( long millis : new long[] { 100, 110, 90 } )
+    {
+      timings.record( "steady.html", millis );
+      timings.record( "slower.html", millis );
+      timings.save();
+    }
+    timings.record( "new.html", 100 );
+    timings.save();
+
+    timings = new SuiteTimings( file );
+    timings.load();
+    timings.record( "steady.html", 120 );
+    timings.record( "slower.html", 160 );
+    timings.record( "new.html", 5000 );
+
+    List<String> slowdowns = new TimingReport( timings ).findSlowdowns( 50 );
+    assertEquals( 1, slowdowns.size() );
+    assertEquals( "slower.html took 160ms, 60% over its median of 100ms", slowdowns.get(0) );
+    assertEquals( 2, new TimingReport( timings ).findSlowdowns( 10 ).size() );
+  }
+
+  public void testShardsLeaveTheHistoryAloneUntilMerged() throws Exception
+  {
+    File file = temporaryFile();
+    SuiteTimings timings = new SuiteTimings( file );
+    timings.record( "a.html", 100 );
+    timings.save();
+    long length = file.length();
+
+    for ( int shard=0; shard < 2; shard++ )
+    {
+      timings = new SuiteTimings( file );
+      timings.setOutputFile( SuiteTimings.shardFile( file, shard, 2 ) );
+      timings.load();
+      timings.record( shard == 0 ? "a.html" : "b.html", 300 );
+      timings.save();
+      SuiteTimings.shardFile( file, shard, 2 ).deleteOnExit();
+    }
+    assertEquals( length, file.length() );
+
+    timings = new SuiteTimings( file );
+    assertEquals( 2, timings.mergeShards() );
+    timings.load();
+    assertEquals( Arrays.asList( 100L, 300L ), timings.getHistory( "a.html" ) );
+    assertEquals( Arrays.asList( 300L ), timings.getHistory( "b.html" ) );
+    assertFalse( SuiteTimings.shardFile( file, 0, 2 ).exists() );
+    assertEquals( 0, timings.mergeShards() );
+  }
+
+  private File temporaryFile() throws Exception
+  {
+    File file = File.createTempFile( "timings", ".tsv" );
+    file.delete();
+    file.deleteOnExit();
+    new File( file.getPath() + ".lock" ).deleteOnExit();
+    return file;
+  }
+}
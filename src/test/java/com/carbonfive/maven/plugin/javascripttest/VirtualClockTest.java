@@ -0,0 +1,47 @@
+package com.carbonfive.maven.plugin.javascripttest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class VirtualClockTest
+    extends TestCase
+{
+  public void testFiresTimersInDueOrderAndJumpsTheClock()
+  {
+    VirtualClock clock = new VirtualClock( 1000 );
+    clock.schedule( "b", 500, false );
+    clock.schedule( "a", 100, false );
+    int poll = clock.schedule( "poll", 250, true );
+    clock.schedule( "c", 500, false );
+
+    List<String> fired = new ArrayList<String>();
+    for ( VirtualClock.Timer timer = clock.next( 1750 ); timer != null; timer = clock.next( 1750 ) )
+    {
+      fired.add( timer.getCallback() + "@" + (long) clock.now() );
+      clock.finished( timer );
+    }
+
+    assertEquals( "[a@1100, poll@1250, b@1500, c@1500, poll@1500, poll@1750]", fired.toString() );
+    assertEquals( 750, clock.getSkipped() );
+    assertEquals( 1, clock.pending() );
+
+    clock.cancel( poll );
+    assertNull( clock.next( -1 ) );
+    assertEquals( 0, clock.pending() );
+  }
+
+  public void testCancelledRunningIntervalIsNotRescheduled()
+  {
+    VirtualClock clock = new VirtualClock( 0 );
+    int id = clock.schedule( "tick", 10, true );
+
+    VirtualClock.Timer timer = clock.next( -1 );
+    clock.cancel( id );
+    clock.finished( timer );
+
+    assertNull( clock.next( -1 ) );
+    assertEquals( 10, clock.getSkipped() );
+  }
+}
@@ -0,0 +1,26 @@
+var declaredBySuiteA = 'suite a';
+assignedBySuiteA = 'suite a';
+
+Screw.Unit(function() {
+  describe('Suite A globals', function() {
+    it("sees its own globals", function() {
+      expect(declaredBySuiteA).to(equal, 'suite a');
+      expect(assignedBySuiteA).to(equal, 'suite a');
+    });
+
+    it("does not see globals from suite B", function() {
+      expect(typeof declaredBySuiteB).to(equal, 'undefined');
+      expect(typeof assignedBySuiteB).to(equal, 'undefined');
+    });
+
+    it("patches Array.prototype for itself only", function() {
+      Array.prototype.patchedBySuiteA = 'suite a';
+      expect([].patchedBySuiteA).to(equal, 'suite a');
+    });
+
+    it("does not see Array.prototype patched by suite B", function() {
+      expect(typeof [].patchedBySuiteB).to(equal, 'undefined');
+      expect(Array.prototype.hasOwnProperty('patchedBySuiteB')).to(equal, false);
+    });
+  });
+});
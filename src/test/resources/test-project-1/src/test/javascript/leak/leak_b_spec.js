@@ -0,0 +1,26 @@
+var declaredBySuiteB = 'suite b';
+assignedBySuiteB = 'suite b';
+
+Screw.Unit(function() {
+  describe('Suite B globals', function() {
+    it("sees its own globals", function() {
+      expect(declaredBySuiteB).to(equal, 'suite b');
+      expect(assignedBySuiteB).to(equal, 'suite b');
+    });
+
+    it("does not see globals from suite A", function() {
+      expect(typeof declaredBySuiteA).to(equal, 'undefined');
+      expect(typeof assignedBySuiteA).to(equal, 'undefined');
+    });
+
+    it("patches Array.prototype for itself only", function() {
+      Array.prototype.patchedBySuiteB = 'suite b';
+      expect([].patchedBySuiteB).to(equal, 'suite b');
+    });
+
+    it("does not see Array.prototype patched by suite A", function() {
+      expect(typeof [].patchedBySuiteA).to(equal, 'undefined');
+      expect(Array.prototype.hasOwnProperty('patchedBySuiteA')).to(equal, false);
+    });
+  });
+});
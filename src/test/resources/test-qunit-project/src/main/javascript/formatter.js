@@ -0,0 +1,15 @@
+var Formatter = {
+
+  pad: function(value, width) {
+    var text = String(value);
+    while (text.length < width) {
+      text = '0' + text;
+    }
+    return text;
+  },
+
+  time: function(seconds) {
+    return Formatter.pad(Math.floor(seconds / 60), 2) + ':' + Formatter.pad(seconds % 60, 2);
+  }
+
+};
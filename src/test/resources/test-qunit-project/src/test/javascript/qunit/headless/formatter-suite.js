@@ -0,0 +1,25 @@
+importScripts('../../../../main/javascript/formatter.js');
+
+module("Formatter");
+
+test("pads numbers", function() {
+  equals( Formatter.pad(7, 3), "007" );
+  equals( Formatter.pad(1234, 3), "1234" );
+});
+
+test("formats minutes and seconds", function() {
+  equals( Formatter.time(125), "02:05" );
+});
+
+test("runs without a DOM", function() {
+  equals( typeof document, "undefined" );
+  equals( typeof jQuery, "undefined" );
+});
+
+test("waits for timers", function() {
+  stop();
+  setTimeout(function() {
+    ok( true, "timer fired" );
+    start();
+  }, 50);
+});